@@ -0,0 +1,145 @@
+package com.github.mnovikov37.cftsort.bench;
+
+import com.github.mnovikov37.cftsort.DataType;
+import com.github.mnovikov37.cftsort.SortType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Генератор отсортированных входных данных для замеров.
+ * Данные детерминированы начальным значением генератора случайных чисел, поэтому замеры воспроизводимы.
+ */
+public class DataGenerator {
+    /**
+     * Распределение длин строк.
+     */
+    public enum Lengths {
+        FIXED,      // Все строки длиной 16 символов
+        UNIFORM,    // Длина равномерно распределена от 1 до 64 символов
+        SKEWED      // Большинство строк короткие, изредка встречаются строки до 1024 символов
+    }
+
+    /**
+     * Распределение элементов между входными файлами.
+     */
+    public enum Layout {
+        MIXED,      // Элементы распределены между файлами случайно и равномерно
+        DOMINANT,   // 90% элементов - в первом файле, остальные распределены случайно
+        SHARDS      // Каждый файл занимает свой диапазон ключей - файлы почти сцеплены
+    }
+
+    private final static char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+            .toCharArray();
+
+    private final Random random;
+
+    /**
+     * @param lengths Распределение длин строк.
+     * @return Длина очередной строки.
+     */
+    private int nextLength(Lengths lengths) {
+        int result = 16;
+        switch (lengths) {
+            case UNIFORM -> result = 1 + random.nextInt(64);
+            case SKEWED -> result = random.nextInt(100) == 0 ? 1 + random.nextInt(1024) : 1 + random.nextInt(8);
+        }
+        return result;
+    }
+
+    /**
+     * @param lengths Распределение длин строк.
+     * @return Случайная строка без пробелов.
+     */
+    private String nextString(Lengths lengths) {
+        char[] chars = new char[nextLength(lengths)];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param dataType Тип данных.
+     * @param count Количество элементов.
+     * @param lengths Распределение длин строк - для строк.
+     * @return Случайные элементы в виде строк, отсортированные по возрастанию.
+     */
+    private String[] sortedLines(DataType dataType, int count, Lengths lengths) {
+        String[] result = new String[count];
+        if (dataType == DataType.STRING) {
+            for (int j = 0; j < result.length; j++) {
+                result[j] = nextString(lengths);
+            }
+            Arrays.sort(result);
+        } else {
+            long[] numbers = new long[count];
+            for (int j = 0; j < numbers.length; j++) {
+                numbers[j] = dataType == DataType.INT ? random.nextInt() : random.nextLong();
+            }
+            Arrays.sort(numbers);
+            for (int j = 0; j < numbers.length; j++) {
+                result[j] = Long.toString(numbers[j]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Генерирует содержимое входных файлов: элементы распределены между файлами случайно,
+     * каждый файл отсортирован в заданном порядке.
+     * @param dataType Тип данных.
+     * @param sortType Порядок сортировки.
+     * @param inputs Количество входных файлов.
+     * @param records Общее количество элементов.
+     * @param lengths Распределение длин строк - для строк.
+     * @return Содержимое входных файлов в кодировке UTF-8, по одному элементу в строке.
+     */
+    public byte[][] generate(DataType dataType, SortType sortType, int inputs, int records, Lengths lengths) {
+        return generate(dataType, sortType, inputs, records, lengths, Layout.MIXED);
+    }
+
+    /**
+     * Генерирует содержимое входных файлов с заданным распределением элементов между файлами.
+     * @param dataType Тип данных.
+     * @param sortType Порядок сортировки.
+     * @param inputs Количество входных файлов.
+     * @param records Общее количество элементов.
+     * @param lengths Распределение длин строк - для строк.
+     * @param layout Распределение элементов между файлами.
+     * @return Содержимое входных файлов в кодировке UTF-8, по одному элементу в строке.
+     */
+    public byte[][] generate(DataType dataType, SortType sortType, int inputs, int records, Lengths lengths,
+                             Layout layout) {
+        int[] counts = new int[inputs];
+        for (int i = 0; i < records; i++) {
+            counts[layout == Layout.DOMINANT && random.nextInt(10) != 0 ? 0 : random.nextInt(inputs)]++;
+        }
+        // Файлы-шарды - подряд идущие части одной отсортированной последовательности.
+        String[] all = layout == Layout.SHARDS ? sortedLines(dataType, records, lengths) : null;
+        int offset = 0;
+        byte[][] result = new byte[inputs][];
+        for (int i = 0; i < inputs; i++) {
+            String[] lines = all != null ? Arrays.copyOfRange(all, offset, offset + counts[i])
+                    : sortedLines(dataType, counts[i], lengths);
+            offset += counts[i];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int j = 0; j < lines.length; j++) {
+                String line = sortType == SortType.ASC ? lines[j] : lines[lines.length - 1 - j];
+                bytes.writeBytes(line.getBytes(StandardCharsets.UTF_8));
+                bytes.write('\n');
+            }
+            result[i] = bytes.toByteArray();
+        }
+        return result;
+    }
+
+    /**
+     * @param seed Начальное значение генератора случайных чисел.
+     */
+    public DataGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+}
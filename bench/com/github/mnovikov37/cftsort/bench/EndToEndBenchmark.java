@@ -0,0 +1,121 @@
+package com.github.mnovikov37.cftsort.bench;
+
+import com.github.mnovikov37.cftsort.DataType;
+import com.github.mnovikov37.cftsort.Main;
+import com.github.mnovikov37.cftsort.SortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Замер программы целиком: Main.main() с входными файлами на диске, включая разбор командной строки,
+ * открытие файлов, слияние и запись выходного файла. Сообщения программы отбрасываются.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class EndToEndBenchmark {
+    @Param({"INT", "STRING"})
+    public DataType dataType;               // Тип данных
+
+    @Param({"ASC"})
+    public SortType sortType;               // Порядок сортировки
+
+    @Param({"2", "10", "100", "1000", "10000"})
+    public int inputs;                      // Количество входных файлов K
+
+    @Param({"1000000"})
+    public int records;                     // Общее количество элементов N
+
+    @Param({"UNIFORM"})
+    public DataGenerator.Lengths lengths;   // Распределение длин строк
+
+    @Param({"", "--mmap --threads 4"})
+    public String options;                  // Дополнительные параметры командной строки через пробел
+
+    private Path directory;                 // Временный каталог входных и выходного файлов
+    private Path output;                    // Выходной файл
+    private String[] args;                  // Параметры командной строки
+    private long bytes;                     // Общий объём входных данных
+
+    /**
+     * @throws IOException При ошибке записи входных файлов.
+     */
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("cftsort-bench");
+        output = directory.resolve("out.txt");
+        byte[][] data = new DataGenerator(inputs * 31L + records).generate(dataType, sortType, inputs, records,
+                lengths);
+        List<String> list = new ArrayList<>();
+        list.add(sortType == SortType.ASC ? "-a" : "-d");
+        list.add(dataType == DataType.INT ? "-i" : dataType == DataType.LONG ? "-l" : "-s");
+        if (!options.isBlank()) {
+            list.addAll(Arrays.asList(options.trim().split(" +")));
+        }
+        list.add(output.toString());
+        bytes = 0;
+        for (int i = 0; i < data.length; i++) {
+            Path input = directory.resolve("in" + i + ".txt");
+            Files.write(input, data[i]);
+            list.add(input.toString());
+            bytes += data[i].length;
+        }
+        args = list.toArray(new String[0]);
+    }
+
+    /**
+     * @throws IOException При ошибке удаления временного каталога.
+     */
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * @return Размер выходного файла.
+     * @throws IOException При ошибке чтения размера выходного файла.
+     */
+    @Benchmark
+    public long main() throws IOException {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            Main.main(args);
+        } finally {
+            System.setOut(out);
+        }
+        long result = Files.size(output);
+        if (result != bytes) {
+            throw new IllegalStateException(result + " bytes written instead of " + bytes);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.mnovikov37.cftsort.bench;
+
+import com.github.mnovikov37.cftsort.DataType;
+import com.github.mnovikov37.cftsort.FileHandler;
+import com.github.mnovikov37.cftsort.MergeInput;
+import com.github.mnovikov37.cftsort.Merger;
+import com.github.mnovikov37.cftsort.NumberInput;
+import com.github.mnovikov37.cftsort.OutputBuffer;
+import com.github.mnovikov37.cftsort.SortType;
+import com.github.mnovikov37.cftsort.StringInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер слияния K входных потоков в памяти: выбор следующего элемента деревом проигравших,
+ * разбор строк и чисел, проверка порядка и запись результата в буфер.
+ * Входные данные читаются из массивов в памяти, результат отбрасывается - диск в замере не участвует.
+ * Распределение длин строк (lengths) влияет только на тип STRING.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class MergeBenchmark {
+    private final static int OUTPUT_BUFFER_SIZE = 1 << 20;  // Размер буфера записи результата
+
+    @Param({"INT", "STRING"})
+    public DataType dataType;               // Тип данных
+
+    @Param({"ASC", "DESC"})
+    public SortType sortType;               // Порядок сортировки
+
+    @Param({"2", "10", "100", "1000", "10000"})
+    public int inputs;                      // Количество входных потоков K
+
+    @Param({"1000000"})
+    public int records;                     // Общее количество элементов N
+
+    @Param({"FIXED", "UNIFORM", "SKEWED"})
+    public DataGenerator.Lengths lengths;   // Распределение длин строк
+
+    @Param({"MIXED"})
+    public DataGenerator.Layout layout;     // Распределение элементов между потоками: DOMINANT, SHARDS - через -p
+
+    private byte[][] data;                  // Содержимое входных потоков
+
+    @Setup(Level.Trial)
+    public void generate() {
+        data = new DataGenerator(inputs * 31L + records).generate(dataType, sortType, inputs, records, lengths,
+                layout);
+    }
+
+    /**
+     * @throws IOException При ошибке слияния.
+     */
+    @Benchmark
+    public void merge() throws IOException {
+        MergeInput[] sources = new MergeInput[data.length];
+        for (int i = 0; i < data.length; i++) {
+            FileHandler file = new FileHandler("input " + i,
+                    Channels.newChannel(new ByteArrayInputStream(data[i])), StandardCharsets.UTF_8);
+            sources[i] = dataType == DataType.STRING ? new StringInput(file) : new NumberInput(file, dataType);
+        }
+        OutputBuffer output = new OutputBuffer(Channels.newChannel(OutputStream.nullOutputStream()),
+                OUTPUT_BUFFER_SIZE, false, StandardCharsets.UTF_8);
+        new Merger(sources, sortType, output).merge();
+        output.close();
+    }
+}
@@ -0,0 +1,71 @@
+package com.github.mnovikov37.cftsort.bench;
+
+import com.github.mnovikov37.cftsort.DataType;
+import com.github.mnovikov37.cftsort.FileHandler;
+import com.github.mnovikov37.cftsort.SortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер чтения одного входного файла в памяти: поиск концов строк, проверка строк на пробелы
+ * и разбор чисел прямо из байтов (FileHandler.nextLong) либо создание строк (FileHandler.getNextString).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class ParseBenchmark {
+    @Param({"INT", "STRING"})
+    public DataType dataType;               // Тип данных
+
+    @Param({"1000000"})
+    public int records;                     // Количество элементов N
+
+    @Param({"FIXED", "UNIFORM", "SKEWED"})
+    public DataGenerator.Lengths lengths;   // Распределение длин строк
+
+    private byte[] data;                    // Содержимое входного файла
+
+    @Setup(Level.Trial)
+    public void generate() {
+        data = new DataGenerator(records).generate(dataType, SortType.ASC, 1, records, lengths)[0];
+    }
+
+    /**
+     * @param blackhole Приёмник прочитанных значений - чтобы оптимизатор не отбросил работу.
+     */
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        FileHandler file = new FileHandler("input", Channels.newChannel(new ByteArrayInputStream(data)),
+                StandardCharsets.UTF_8);
+        if (dataType == DataType.STRING) {
+            String s;
+            while ((s = file.getNextString()) != null) {
+                blackhole.consume(s);
+            }
+        } else {
+            while (file.nextLong(Long.MIN_VALUE, Long.MAX_VALUE)) {
+                blackhole.consume(file.getNumber());
+            }
+        }
+        file.close();
+    }
+}
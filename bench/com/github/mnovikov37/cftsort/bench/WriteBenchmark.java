@@ -0,0 +1,86 @@
+package com.github.mnovikov37.cftsort.bench;
+
+import com.github.mnovikov37.cftsort.DataType;
+import com.github.mnovikov37.cftsort.OutputBuffer;
+import com.github.mnovikov37.cftsort.SortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер записи результата: форматирование чисел прямо в буфер (OutputBuffer.writeLong)
+ * либо кодирование строк (OutputBuffer.writeString) и сброс буфера в канал.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class WriteBenchmark {
+    private final static int OUTPUT_BUFFER_SIZE = 1 << 20;  // Размер буфера записи
+
+    @Param({"INT", "STRING"})
+    public DataType dataType;               // Тип данных
+
+    @Param({"1000000"})
+    public int records;                     // Количество элементов N
+
+    @Param({"FIXED", "UNIFORM", "SKEWED"})
+    public DataGenerator.Lengths lengths;   // Распределение длин строк
+
+    private long[] numbers;                 // Записываемые числа, null - если записываются строки
+    private String[] strings;               // Записываемые строки
+
+    @Setup(Level.Trial)
+    public void generate() {
+        byte[] data = new DataGenerator(records).generate(dataType, SortType.ASC, 1, records, lengths)[0];
+        String[] lines = new String(data, StandardCharsets.UTF_8).split("\n");
+        if (dataType == DataType.STRING) {
+            numbers = null;
+            strings = lines;
+        } else {
+            numbers = new long[lines.length];
+            for (int i = 0; i < lines.length; i++) {
+                numbers[i] = Long.parseLong(lines[i]);
+            }
+            strings = null;
+        }
+    }
+
+    /**
+     * @throws IOException При ошибке записи.
+     */
+    @Benchmark
+    public void write() throws IOException {
+        OutputBuffer output = new OutputBuffer(Channels.newChannel(OutputStream.nullOutputStream()),
+                OUTPUT_BUFFER_SIZE, false, StandardCharsets.UTF_8);
+        if (numbers != null) {
+            for (long number: numbers) {
+                output.writeLong(number);
+                output.writeLineEnd();
+            }
+        } else {
+            for (String s: strings) {
+                output.writeString(s);
+                output.writeLineEnd();
+            }
+        }
+        output.close();
+    }
+}
@@ -0,0 +1,100 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Потоковая обработка групп равных элементов перед записью в выходной файл.
+ * Выходные данные слияния упорядочены, поэтому равные элементы (записи с равными ключами) идут подряд:
+ * из каждой группы записывается только первый элемент, а вслед за ним через разделитель - количество
+ * элементов группы и (или) сумма поля значения (см. KeyFields). Группа завершается, когда приходит
+ * элемент следующей группы, - данные не требуют отдельного прохода по выходному файлу.
+ * Первый элемент группы записывает вызывающая сторона (см. add()), дополнения и конец строки - обработчик.
+ */
+public class Aggregator {
+    private final OutputBuffer output;  // Буфер записи результата
+    private final boolean counted;      // Записывается количество элементов группы
+    private final boolean summed;       // Записывается сумма поля значения
+    private final String delimiter;     // Разделитель дополнений
+    private boolean open;               // Первый элемент группы записан, группа не завершена
+    private long count;                 // Количество элементов текущей группы
+    private long sum;                   // Младшее слово суммы поля значения текущей группы (по модулю 2^64)
+    private long sumHigh;               // Старшее слово суммы: точная сумма = sum + sumHigh * 2^64
+    private boolean overflow;           // Сумма хотя бы одной группы вышла за пределы long
+
+    public boolean isSummed() { return summed; }
+
+    /**
+     * Завершает текущую группу: записывает дополнения и конец строки.
+     * Вызывается и извне, когда известно, что следующий элемент начнёт новую группу.
+     * @throws IOException При ошибке записи.
+     */
+    public void closeGroup() throws IOException {
+        if (open) {
+            if (counted) {
+                output.writeString(delimiter);
+                output.writeLong(count);
+            }
+            if (summed) {
+                output.writeString(delimiter);
+                if (sumHigh == 0) {
+                    output.writeLong(sum);
+                } else { // Сумма ограничивается пределами long.
+                    output.writeLong(sumHigh > 0 ? Long.MAX_VALUE : Long.MIN_VALUE);
+                    overflow = true;
+                }
+            }
+            output.writeLineEnd();
+            open = false;
+        }
+    }
+
+    /**
+     * Учитывает очередной элемент выходных данных.
+     * @param newGroup true - элемент не равен предыдущему и начинает новую группу.
+     * @param value Значение поля значения элемента, если сумма записывается.
+     * @return true, если элемент начинает новую группу - вызывающая сторона записывает его без конца строки.
+     * @throws IOException При ошибке записи дополнений предыдущей группы.
+     */
+    public boolean add(boolean newGroup, long value) throws IOException {
+        if (newGroup) {
+            closeGroup();
+            open = true;
+            count = 0;
+            sum = 0;
+            sumHigh = 0;
+        }
+        count++;
+        if (summed) { // Сумма накапливается точно: промежуточный выход за пределы long не искажает итог.
+            long result = sum + value;
+            if (((sum ^ result) & (value ^ result)) < 0) {
+                sumHigh += value > 0 ? 1 : -1;
+            }
+            sum = result;
+        }
+        return newGroup;
+    }
+
+    /**
+     * Завершает последнюю группу. Вызывается, когда все элементы учтены.
+     * @throws IOException При ошибке записи.
+     */
+    public void finish() throws IOException {
+        closeGroup();
+        if (overflow) {
+            Diagnostics.message(ErrorLevel.WARNING, "sum is out of range of long in some groups - limit value written");
+        }
+    }
+
+    /**
+     * @param output Буфер записи результата.
+     * @param counted true - записывается количество элементов группы.
+     * @param summed true - записывается сумма поля значения.
+     * @param delimiter Разделитель дополнений.
+     */
+    public Aggregator(OutputBuffer output, boolean counted, boolean summed, char delimiter) {
+        this.output = output;
+        this.counted = counted;
+        this.summed = summed;
+        this.delimiter = String.valueOf(delimiter);
+    }
+}
@@ -0,0 +1,154 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Каскадное слияние с ограниченным количеством одновременно открытых файлов (--fan-in N).
+ * Пока источников больше N, подряд идущие источники сливаются пакетами не более чем по N во временные
+ * файлы-серии следующего уровня - ровно столько пакетов, сколько нужно, чтобы источников осталось N:
+ * остальные источники переходят на следующий уровень без перезаписи. Оставшиеся источники сливаются
+ * в выходной файл обычным слиянием. Пакеты состоят из подряд идущих источников, поэтому из равных элементов,
+ * как и при однократном слиянии, первым выводится элемент файла с большим номером.
+ * Группы равных элементов обрабатываются только в итоговом слиянии. Временные файлы удаляются по завершении.
+ */
+public class CascadedMerge implements MergeMode {
+    private final static int CASCADE_BUFFER_SIZE = 1 << 18; // Размер буфера записи промежуточной серии
+
+    private final MergeContext context;     // Окружение слияния
+    private final List<String> sources;     // Имена источников: входных файлов и (или) временных файлов-серий
+    private final Set<String> runs;         // Имена источников, являющихся временными файлами-сериями в UTF-8
+
+    /**
+     * Открывает источник каскадного слияния и регистрирует его счётчики. Входной файл читается
+     * с нижней границы диапазона ключей.
+     * @param name Имя входного файла либо временного файла-серии.
+     * @return Обработчик источника, null, если входной файл не найден.
+     * @throws IOException При ошибке открытия временного файла.
+     */
+    private FileHandler openSource(String name) throws IOException {
+        FileHandler result;
+        if (runs.contains(name)) {
+            result = new FileHandler(name, FileChannel.open(Paths.get(name), StandardOpenOption.READ),
+                    StandardCharsets.UTF_8, context.getReadBufferSize());
+            context.getMetrics().register(result.getMetrics());
+        } else {
+            result = context.openInput(name);
+            if (result != null) {
+                context.seekRange(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Сливает пакет подряд идущих источников каскадного слияния в новый временный файл-серию.
+     * Источники закрываются, а промежуточные серии удаляются сразу после слияния.
+     * @param batch Имена источников пакета.
+     * @return Имя новой серии.
+     * @throws IOException При ошибке чтения или записи временных файлов.
+     */
+    private String mergeBatch(List<String> batch) throws IOException {
+        Path run = Files.createTempFile(context.getTempDirectory(), "cftsort", ".run");
+        String result = run.toString();
+        runs.add(result);
+        List<FileHandler> handlers = new ArrayList<>();
+        OutputBuffer runOutput = null;
+        try {
+            List<MergeInput> inputs = new ArrayList<>();
+            for (String name: batch) {
+                FileHandler handler = openSource(name);
+                if (handler != null) {
+                    handlers.add(handler);
+                    // Без упреждения: источники пакета закрываются до завершения работы пула упреждающего чтения.
+                    inputs.add(context.createInput(handler, name, false));
+                }
+            }
+            runOutput = new OutputBuffer(FileChannel.open(run, StandardOpenOption.WRITE), CASCADE_BUFFER_SIZE,
+                    false, StandardCharsets.UTF_8);
+            context.createMerger(inputs.toArray(new MergeInput[0]), runOutput, false).merge();
+        } finally {
+            if (runOutput != null) {
+                runOutput.close();
+            }
+            for (FileHandler handler: handlers) {
+                handler.close();
+            }
+        }
+        for (String name: batch) {
+            if (runs.remove(name)) {
+                Files.deleteIfExists(Paths.get(name));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void merge() throws IOException {
+        int fanIn = context.getFanIn();
+        List<String> level = sources;
+        List<FileHandler> handlers = new ArrayList<>();
+        try {
+            while (level.size() > fanIn) {
+                List<String> next = new ArrayList<>();
+                int excess = level.size() - fanIn; // На сколько нужно сократить количество источников
+                int i = 0;
+                while (i < level.size()) {
+                    int size = Math.min(Math.min(fanIn, excess + 1), level.size() - i);
+                    if (size > 1) { // Пакет из size источников сокращает их количество на size - 1.
+                        next.add(mergeBatch(level.subList(i, i + size)));
+                        excess -= size - 1;
+                        i += size;
+                    } else {
+                        next.add(level.get(i++));
+                    }
+                }
+                level = next;
+            }
+            List<MergeInput> inputs = new ArrayList<>();
+            for (String name: level) {
+                FileHandler handler = openSource(name);
+                if (handler != null) {
+                    handlers.add(handler);
+                    inputs.add(context.createInput(handler, name, true));
+                }
+            }
+            if (!inputs.isEmpty()) {
+                context.merge(inputs.toArray(new MergeInput[0]));
+            }
+        } finally {
+            context.stopPrefetch(); // Дожидаемся завершения фонового чтения, прежде чем закрывать файлы.
+            for (FileHandler handler: handlers) {
+                handler.close();
+            }
+            for (String run: runs) {
+                try {
+                    Files.deleteIfExists(Paths.get(run));
+                } catch (IOException e) {
+                    Diagnostics.message(ErrorLevel.WARNING, "cannot delete temporary file \"" + run + "\"\n"
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param sources Имена источников: входных файлов и (или) временных файлов-серий.
+     * @param runs Имена источников, являющихся временными файлами-сериями в кодировке UTF-8.
+     * Дополняется промежуточными сериями.
+     */
+    public CascadedMerge(MergeContext context, List<String> sources, Set<String> runs) {
+        this.context = context;
+        this.sources = sources;
+        this.runs = runs;
+    }
+}
@@ -0,0 +1,185 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * Контрольная точка слияния - состояние, с которого прерванное слияние можно продолжить (см. --resume).
+ * Хранит длину выходного файла, сброшенного на диск, и для каждого входного файла - смещение в байтах и номер
+ * строки его текущего, ещё не записанного элемента, а также последний записанный из него элемент.
+ * Вместе с состоянием хранятся параметры, от которых зависят порядок и содержимое выходного файла: слияние
+ * с другими параметрами продолжить невозможно.
+ * Файл контрольной точки - в формате Properties; записывается во временный файл, который затем
+ * переименовывается, поэтому прерывание записи не портит предыдущую контрольную точку.
+ */
+public class Checkpoint {
+    private final static String OUTPUT_LENGTH = "output.length";    // Длина выходного файла
+    private final static String INPUTS = "inputs";                  // Количество входных файлов
+    private final static String SIGNATURE = "signature";            // Параметры сортировки
+    private final static String INPUT = "input.";                   // Префикс свойств входного файла
+    private final static String NAME = ".name";                     // Имя входного файла
+    private final static String OFFSET = ".offset";                 // Смещение текущего элемента, -1 - файл завершён
+    private final static String LINE = ".line";                     // Номер строки текущего элемента
+    private final static String LAST = ".last";                     // Последний записанный элемент
+    private final static double NANOS = 1e9;                        // Наносекунд в секунде
+
+    private final Path path;            // Файл контрольной точки
+    private final long intervalNanos;   // Интервал между контрольными точками в наносекундах
+    private final String[] names;       // Имена входных файлов
+    private final String signature;     // Параметры сортировки, null - не сохранены
+    private final long[] offsets;       // Смещения текущих элементов, -1 - файл исчерпан или исключён
+    private final long[] lines;         // Номера строк текущих элементов
+    private final String[] lastValues;  // Последние записанные элементы, null - из файла ещё ничего не записано
+    private long outputLength;          // Длина выходного файла
+    private long outputBase;            // Длина выходного файла до начала записи в текущем запуске
+    private long savedNanos;            // Время сохранения последней контрольной точки
+
+    public int getInputCount() { return names.length; }
+    public String getName(int input) { return names[input]; }
+    public long getOffset(int input) { return offsets[input]; }
+    public long getLine(int input) { return lines[input]; }
+    public String getLastValue(int input) { return lastValues[input]; }
+    public long getOutputLength() { return outputLength; }
+    public String getSignature() { return signature; }
+
+    /**
+     * @return true, если с сохранения последней контрольной точки прошёл заданный интервал.
+     */
+    public boolean isDue() {
+        return System.nanoTime() - savedNanos >= intervalNanos;
+    }
+
+    /**
+     * Сохраняет контрольную точку. Вызывается между записью элементов, когда все записанные элементы
+     * уже сброшены в буфер записи: буфер сбрасывается на диск, затем записывается файл контрольной точки.
+     * @param inputs Входные потоки слияния - по одному на входной файл, в порядке входных файлов.
+     * @param emitted Признаки потоков, элементы которых записаны после сохранения предыдущей контрольной точки.
+     *                Сбрасываются.
+     * @param output Буфер записи в выходной файл.
+     * @throws IOException При ошибке записи выходного файла или файла контрольной точки.
+     */
+    public void save(MergeInput[] inputs, boolean[] emitted, OutputBuffer output) throws IOException {
+        output.commit();
+        outputLength = outputBase + output.getWritten();
+        for (int i = 0; i < inputs.length; i++) {
+            MergeInput input = inputs[i];
+            if (emitted[i]) {
+                lastValues[i] = input.previousToString();
+                emitted[i] = false;
+            }
+            offsets[i] = input.hasCurrent() ? input.getFile().getScanner().getLineOffset() : -1;
+            lines[i] = input.getLineNumber();
+        }
+        Properties properties = new Properties();
+        properties.setProperty(OUTPUT_LENGTH, Long.toString(outputLength));
+        properties.setProperty(INPUTS, Integer.toString(names.length));
+        properties.setProperty(SIGNATURE, signature);
+        for (int i = 0; i < names.length; i++) {
+            properties.setProperty(INPUT + i + NAME, names[i]);
+            properties.setProperty(INPUT + i + OFFSET, Long.toString(offsets[i]));
+            properties.setProperty(INPUT + i + LINE, Long.toString(lines[i]));
+            if (lastValues[i] != null) {
+                properties.setProperty(INPUT + i + LAST, lastValues[i]);
+            }
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "cftsort checkpoint");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        savedNanos = System.nanoTime();
+    }
+
+    /**
+     * Удаляет файл контрольной точки - по успешном завершении слияния.
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            Diagnostics.message(ErrorLevel.WARNING, "\"" + path + "\": cannot delete checkpoint file\n"
+                    + e.getMessage());
+        }
+    }
+
+    /**
+     * @param outputBase Длина выходного файла до начала записи в текущем запуске - при возобновлении
+     *                   слияния с контрольной точки.
+     */
+    public void setOutputBase(long outputBase) {
+        this.outputBase = outputBase;
+        this.outputLength = outputBase;
+    }
+
+    /**
+     * @param value Значение свойства.
+     * @return Число, -2 - если значение отсутствует или некорректно.
+     */
+    private static long parseLong(String value) {
+        long result;
+        try {
+            result = value != null ? Long.parseLong(value) : -2;
+        } catch (NumberFormatException e) {
+            result = -2;
+        }
+        return result;
+    }
+
+    /**
+     * Загружает сохранённую контрольную точку.
+     * @param path Файл контрольной точки.
+     * @param interval Интервал между контрольными точками в секундах.
+     * @return Контрольная точка, null, если файл имеет неверный формат.
+     * @throws IOException При ошибке чтения файла.
+     */
+    public static Checkpoint load(Path path, long interval) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        long count = parseLong(properties.getProperty(INPUTS));
+        Checkpoint result = null;
+        if (count >= 0 && count <= Integer.MAX_VALUE) {
+            String[] names = new String[(int) count];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = properties.getProperty(INPUT + i + NAME);
+            }
+            result = new Checkpoint(path, interval, names, properties.getProperty(SIGNATURE));
+            result.outputLength = parseLong(properties.getProperty(OUTPUT_LENGTH));
+            boolean valid = result.outputLength >= 0;
+            for (int i = 0; i < names.length; i++) {
+                result.offsets[i] = parseLong(properties.getProperty(INPUT + i + OFFSET));
+                result.lines[i] = parseLong(properties.getProperty(INPUT + i + LINE));
+                result.lastValues[i] = properties.getProperty(INPUT + i + LAST);
+                valid &= names[i] != null && result.offsets[i] >= -1 && result.lines[i] >= 0;
+            }
+            if (!valid) {
+                result = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param path Файл контрольной точки.
+     * @param interval Интервал между контрольными точками в секундах.
+     * @param names Имена входных файлов.
+     * @param signature Параметры, от которых зависят порядок и содержимое выходного файла.
+     */
+    public Checkpoint(Path path, long interval, String[] names, String signature) {
+        this.path = path;
+        this.intervalNanos = (long) (interval * NANOS);
+        this.names = names;
+        this.signature = signature;
+        this.offsets = new long[names.length];
+        this.lines = new long[names.length];
+        this.lastValues = new String[names.length];
+        this.savedNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Последовательное слияние с контрольными точками (см. Checkpoint).
+ * При возобновлении каждый входной файл читается со смещения своего первого ещё не записанного элемента,
+ * номера строк продолжают нумерацию файла. Упреждающее чтение и параллельное слияние не используются:
+ * смещение текущего элемента известно только считывателю, читающему файл вместе со слиянием.
+ */
+public class CheckpointedMerge implements MergeMode {
+    private final MergeContext context;     // Окружение слияния
+    private final List<FileHandler> files;  // Обработчики несжатых входных файлов
+    private final Checkpoint checkpoint;    // Контрольные точки слияния
+    private final boolean resumed;          // Слияние возобновляется с контрольной точки
+
+    @Override
+    public void merge() throws IOException {
+        MergeInput[] inputs = new MergeInput[files.size()];
+        Object[] previousKeys = resumed ? new Object[inputs.length] : null;
+        List<FileHandler> fragments = new ArrayList<>();
+        try {
+            for (int i = 0; i < inputs.length; i++) {
+                FileHandler file = files.get(i);
+                if (resumed) { // Исчерпанный или исключённый файл продолжается пустым фрагментом в конце файла.
+                    long size = file.getFileChannel().size();
+                    long offset = checkpoint.getOffset(i) >= 0 ? Math.min(checkpoint.getOffset(i), size) : size;
+                    InputIndex index = file.getIndex();
+                    file = new FileHandler(file.getFileName(), file.getFileChannel(), offset, size,
+                            context.isMemoryMapped(), MergeContext.GROUP_CHUNK_SIZE);
+                    file.setIndex(index);
+                    file.setLineNumber(checkpoint.getLine(i) - 1);
+                    fragments.add(file);
+                    context.getMetrics().register(file.getMetrics());
+                    if (checkpoint.getLastValue(i) != null) {
+                        previousKeys[i] = context.parseKey(checkpoint.getLastValue(i));
+                    }
+                }
+                inputs[i] = context.createInput(file);
+            }
+            Merger merger = context.createMerger(inputs, context.getOutputBuffer(), true);
+            merger.setCheckpoint(checkpoint);
+            merger.setPreviousKeys(previousKeys);
+            merger.merge();
+        } finally {
+            for (FileHandler fragment: fragments) {
+                fragment.close();
+            }
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param files Обработчики несжатых входных файлов. Без возобновления их счётчики регистрируются сразу,
+     * при возобновлении - счётчики фрагментов, читаемых с контрольной точки.
+     * @param checkpoint Контрольные точки слияния.
+     * @param resumed true - слияние возобновляется с контрольной точки.
+     */
+    public CheckpointedMerge(MergeContext context, List<FileHandler> files, Checkpoint checkpoint, boolean resumed) {
+        this.context = context;
+        this.files = files;
+        this.checkpoint = checkpoint;
+        this.resumed = resumed;
+        if (!resumed) {
+            for (FileHandler file: files) {
+                context.getMetrics().register(file.getMetrics());
+            }
+        }
+    }
+}
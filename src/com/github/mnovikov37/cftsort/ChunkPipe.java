@@ -0,0 +1,163 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Канал в памяти между двумя потоками выполнения: один пишет данные, другой читает.
+ * Данные передаются блоками через ограниченную очередь, блоки используются повторно -
+ * объём памяти канала не превышает количество блоков, умноженное на размер блока.
+ * Когда очередь заполнена, пишущий поток ожидает читающий.
+ */
+public class ChunkPipe {
+    private final static ByteBuffer END = ByteBuffer.allocate(0); // Признак конца данных
+
+    private final BlockingQueue<ByteBuffer> ready;  // Заполненные блоки
+    private final BlockingQueue<ByteBuffer> free;   // Свободные блоки
+    private volatile boolean closed;                // Читающая сторона закрыта - запись бессмысленна
+    private volatile IOException failure;           // Ошибка пишущей стороны - передаётся читающей
+    private ByteBuffer current;                     // Блок, из которого сейчас читаются данные
+    private boolean ended;                          // Данные прочитаны до конца
+
+    /**
+     * Ожидает элемент очереди. Прерывание ожидания обрабатывается как закрытие канала.
+     */
+    private static ByteBuffer take(BlockingQueue<ByteBuffer> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    /**
+     * Ожидает место в очереди. Прерывание ожидания обрабатывается как закрытие канала.
+     */
+    private static void put(BlockingQueue<ByteBuffer> queue, ByteBuffer buffer) throws IOException {
+        try {
+            queue.put(buffer);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    /**
+     * Сторона записи.
+     */
+    private class Sink implements WritableByteChannel {
+        private boolean open = true;
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int result = 0;
+            while (src.hasRemaining()) {
+                if (closed) {
+                    throw new IOException("Reading side of the pipe is closed");
+                }
+                ByteBuffer chunk = take(free);
+                chunk.clear();
+                int count = Math.min(chunk.remaining(), src.remaining());
+                ByteBuffer part = src.duplicate();
+                part.limit(part.position() + count);
+                chunk.put(part);
+                chunk.flip();
+                src.position(src.position() + count);
+                put(ready, chunk);
+                result += count;
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isOpen() { return open; }
+
+        @Override
+        public void close() throws IOException {
+            if (open) {
+                open = false;
+                put(ready, END);
+            }
+        }
+    }
+
+    /**
+     * Сторона чтения.
+     */
+    private class Source implements ReadableByteChannel {
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int result = -1;
+            if (!ended && current == null) {
+                current = take(ready);
+                if (current == END) {
+                    ended = true;
+                    current = null;
+                    if (failure != null) {
+                        throw new IOException(failure.getMessage(), failure);
+                    }
+                }
+            }
+            if (current != null) {
+                int count = Math.min(current.remaining(), dst.remaining());
+                ByteBuffer part = current.duplicate();
+                part.limit(part.position() + count);
+                dst.put(part);
+                current.position(current.position() + count);
+                if (!current.hasRemaining()) {
+                    free.add(current);
+                    current = null;
+                }
+                result = count;
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isOpen() { return !closed; }
+
+        @Override
+        public void close() {
+            // Освобождаем пишущую сторону, если она ожидает свободный блок.
+            closed = true;
+            ready.clear();
+            for (int i = free.remainingCapacity(); i > 0; i--) {
+                free.offer(ByteBuffer.allocate(0));
+            }
+        }
+    }
+
+    private final Sink sink = new Sink();
+    private final Source source = new Source();
+
+    public WritableByteChannel getSink() { return sink; }
+    public ReadableByteChannel getSource() { return source; }
+
+    /**
+     * Завершает запись с ошибкой: читающая сторона получит её после уже переданных данных.
+     * @param e Ошибка пишущей стороны.
+     * @throws IOException Если ожидание места в очереди прервано.
+     */
+    public void fail(IOException e) throws IOException {
+        failure = e;
+        sink.close();
+    }
+
+    /**
+     * @param chunkSize Размер блока в байтах.
+     * @param chunks Количество блоков.
+     */
+    public ChunkPipe(int chunkSize, int chunks) {
+        ready = new ArrayBlockingQueue<>(chunks + 1); // Дополнительное место - для признака конца данных.
+        free = new ArrayBlockingQueue<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            free.add(ByteBuffer.allocateDirect(chunkSize));
+        }
+    }
+}
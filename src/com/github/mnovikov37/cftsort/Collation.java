@@ -0,0 +1,223 @@
+package com.github.mnovikov37.cftsort;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Правило сравнения строк (см. CollationType).
+ * Правила, сравнение по которым дорого (без учёта регистра, натуральный порядок, правила языка),
+ * сравнивают строки по ключам сортировки - массивам байт, которые сравниваются побайтно без знака.
+ * Входные потоки слияния вычисляют ключ один раз при чтении элемента (см. StringInput), поэтому
+ * многократные сравнения в дереве слияния не обращаются к правилу сравнения.
+ * Как Comparator правило сравнивает строки напрямую - для ключевых правил ключи вычисляются при каждом сравнении.
+ */
+public class Collation implements Comparator<String> {
+    public final static Collation ORDINAL = new Collation(CollationType.ORDINAL, null);
+
+    private final static char LOCALE_SEPARATOR = ':';   // Разделитель имени правила и языка: locale:ru-RU
+    private final static byte NUMBER_MARK = 1;          // Признак числа в ключе натурального порядка
+    private final static byte CHAR_MARK = 2;            // Признак символа в ключе натурального порядка
+
+    private final CollationType type;               // Правило сравнения
+    private final Locale locale;                    // Язык правила LOCALE, null - для остальных правил
+    private final ThreadLocal<Collator> collators;  // Экземпляры Collator по потокам выполнения - он не потокобезопасен
+
+    public CollationType getType() { return type; }
+    public Locale getLocale() { return locale; }
+    public boolean isKeyed() { return type.isKeyed(); }
+
+    /**
+     * Ключ сортировки в виде объекта - для сравнения вне основного цикла слияния (см. MergeInput.getCurrentKey()).
+     */
+    public static class Key implements Comparable<Key> {
+        private final byte[] bytes;
+
+        @Override
+        public int compareTo(Key other) {
+            return compareKeys(bytes, other.bytes);
+        }
+
+        public Key(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Сравнивает ключи сортировки.
+     * @param a Первый ключ.
+     * @param b Второй ключ.
+     * @return Результат сравнения по возрастанию.
+     */
+    public static int compareKeys(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    /**
+     * Ключ строки без учёта регистра: кодовые точки приводятся так же, как в String.CASE_INSENSITIVE_ORDER,
+     * и записываются по три байта - ключи сравниваются в порядке кодовых точек.
+     * @param s Строка.
+     * @return Ключ сортировки.
+     */
+    private static byte[] caseInsensitiveKey(String s) {
+        byte[] result = new byte[3 * s.length()];
+        int length = 0;
+        for (int i = 0; i < s.length(); ) {
+            int codePoint = s.codePointAt(i);
+            i += Character.charCount(codePoint);
+            codePoint = Character.toLowerCase(Character.toUpperCase(codePoint));
+            result[length++] = (byte) (codePoint >>> 16);
+            result[length++] = (byte) (codePoint >>> 8);
+            result[length++] = (byte) codePoint;
+        }
+        return length == result.length ? result : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Ключ строки в натуральном порядке: последовательность цифр записывается как число - признак,
+     * количество значащих цифр и сами цифры, поэтому "file9" меньше "file10"; остальные символы - признак
+     * и два байта символа. Числа идут раньше остальных символов, ведущие нули не учитываются.
+     * @param s Строка.
+     * @return Ключ сортировки.
+     */
+    private static byte[] naturalKey(String s) {
+        byte[] result = new byte[3 * s.length() + 4];
+        int length = 0;
+        int i = 0;
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                while (i < s.length() && s.charAt(i) == '0') {
+                    i++;
+                }
+                int start = i;
+                while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+                    i++;
+                }
+                int digits = i - start;
+                if (length + 5 + digits > result.length) {
+                    result = Arrays.copyOf(result, Math.max(2 * result.length, length + 5 + digits));
+                }
+                result[length++] = NUMBER_MARK;
+                for (int shift = 24; shift >= 0; shift -= 8) {
+                    result[length++] = (byte) (digits >>> shift);
+                }
+                for (int k = start; k < i; k++) {
+                    result[length++] = (byte) s.charAt(k);
+                }
+            } else {
+                if (length + 3 > result.length) {
+                    result = Arrays.copyOf(result, 2 * result.length + 3);
+                }
+                result[length++] = CHAR_MARK;
+                result[length++] = (byte) (c >>> 8);
+                result[length++] = (byte) c;
+                i++;
+            }
+        }
+        return Arrays.copyOf(result, length);
+    }
+
+    /**
+     * Сравнивает строки по кодовым точкам Unicode - в порядке байтов UTF-8.
+     * Отличается от String.compareTo() только для символов вне BMP и символов U+E000..U+FFFF.
+     * @param a Первая строка.
+     * @param b Вторая строка.
+     * @return Результат сравнения по возрастанию.
+     */
+    private static int compareCodePoints(String a, String b) {
+        int result = 0;
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; result == 0 && i < length; i++) {
+            int x = a.charAt(i);
+            int y = b.charAt(i);
+            if (x != y) {
+                if (x >= Character.MIN_SURROGATE && y >= Character.MIN_SURROGATE) {
+                    // Суррогатные пары (символы вне BMP) идут после символов U+E000..U+FFFF.
+                    x += x < 0xE000 ? 0x2000 : -0x800;
+                    y += y < 0xE000 ? 0x2000 : -0x800;
+                }
+                result = x - y;
+            }
+        }
+        if (result == 0) {
+            result = a.length() - b.length();
+        }
+        return result;
+    }
+
+    /**
+     * Вычисляет ключ сортировки строки.
+     * @param s Строка.
+     * @return Ключ сортировки: для ORDINAL - кодовые единицы UTF-16 по два байта, для BYTES - байты UTF-8.
+     */
+    public byte[] getKey(String s) {
+        byte[] result = null;
+        switch (type) {
+            case ORDINAL -> result = s.getBytes(StandardCharsets.UTF_16BE);
+            case BYTES -> result = s.getBytes(StandardCharsets.UTF_8);
+            case CASE_INSENSITIVE -> result = caseInsensitiveKey(s);
+            case NATURAL -> result = naturalKey(s);
+            case LOCALE -> result = collators.get().getCollationKey(s).toByteArray();
+        }
+        return result;
+    }
+
+    /**
+     * Ключ строки в виде объекта, сравнимого в том же порядке, что и строки по этому правилу.
+     * @param s Строка.
+     * @return Для ORDINAL - сама строка, для остальных правил - Key.
+     */
+    public Object getSortKey(String s) {
+        return type == CollationType.ORDINAL ? s : new Key(getKey(s));
+    }
+
+    @Override
+    public int compare(String a, String b) {
+        int result;
+        switch (type) {
+            case ORDINAL -> result = a.compareTo(b);
+            case BYTES -> result = compareCodePoints(a, b);
+            default -> result = compareKeys(getKey(a), getKey(b));
+        }
+        return result;
+    }
+
+    /**
+     * Получение правила сравнения по значению параметра командной строки.
+     * @param name Имя правила; для правила по языку - locale (язык по умолчанию)
+     *             либо locale:ТЕГ, например locale:ru-RU.
+     * @return Правило сравнения, null, если имя или язык неизвестны.
+     */
+    public static Collation forName(String name) {
+        Collation result = null;
+        int separator = name.indexOf(LOCALE_SEPARATOR);
+        CollationType type = CollationType.forName(separator < 0 ? name : name.substring(0, separator));
+        if (type == CollationType.LOCALE) {
+            Locale locale = separator < 0 ? Locale.getDefault() : Locale.forLanguageTag(name.substring(separator + 1));
+            if (!locale.getLanguage().isEmpty()) {
+                result = new Collation(type, locale);
+            }
+        } else if (type != null && separator < 0) {
+            result = type == CollationType.ORDINAL ? ORDINAL : new Collation(type, null);
+        }
+        return result;
+    }
+
+    /**
+     * @param type Правило сравнения.
+     * @param locale Язык правила LOCALE, null - для остальных правил.
+     */
+    public Collation(CollationType type, Locale locale) {
+        this.type = type;
+        this.locale = locale;
+        if (type == CollationType.LOCALE) {
+            Collator prototype = Collator.getInstance(locale != null ? locale : Locale.getDefault());
+            this.collators = ThreadLocal.withInitial(() -> (Collator) prototype.clone());
+        } else {
+            this.collators = null;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Правило сравнения строк.
+ */
+public enum CollationType {
+    ORDINAL("ordinal", false),              // По кодовым единицам UTF-16 - как String.compareTo()
+    BYTES("bytes", false),                  // По байтам UTF-8 - то есть по кодовым точкам Unicode
+    CASE_INSENSITIVE("ci", true),           // Без учёта регистра - как String.CASE_INSENSITIVE_ORDER
+    NATURAL("natural", true),               // Последовательности цифр сравниваются как числа
+    LOCALE("locale", true);                 // По правилам языка (java.text.Collator)
+
+    /**
+     * Имя правила в параметре командной строки.
+     */
+    private String name;
+    /**
+     * Строки сравниваются по ключам сортировки, вычисляемым один раз для каждого элемента.
+     */
+    private boolean keyed;
+
+    public boolean isKeyed() { return keyed; }
+
+    /**
+     * Получение правила сравнения по имени.
+     * @param name Имя правила в параметре командной строки.
+     * @return Правило сравнения, null, если имя неизвестно.
+     */
+    public static CollationType forName(String name) {
+        CollationType result = null;
+
+        for (CollationType type: CollationType.values()) {
+            if (type.name.equals(name)) {
+                result = type;
+                break;
+            }
+        }
+
+        return result;
+    }
+
+    CollationType(String name, boolean keyed) {
+        this.name = name;
+        this.keyed = keyed;
+    }
+}
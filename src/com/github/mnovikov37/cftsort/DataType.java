@@ -5,6 +5,7 @@ package com.github.mnovikov37.cftsort;
  */
 public enum DataType {
     INT("-i"),
+    LONG("-l"),
     STRING("-s");
 
     /**
@@ -0,0 +1,89 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Распаковка входного файла либо потоковых данных (см. StreamChannel) в формате gzip в отдельном потоке выполнения.
+ * Распакованные данные передаются считывателю через канал в памяти ограниченного объёма,
+ * поэтому распаковка идёт одновременно со слиянием. Поддерживаются файлы из нескольких сжатых блоков.
+ */
+public class Decompressor implements Runnable {
+    private final static int CHUNK_SIZE = 1 << 18;  // Размер блока канала распакованных данных
+    private final static int CHUNKS = 4;            // Количество блоков канала распакованных данных
+    private final static int GZIP_MAGIC = 0x8b1f;   // Сигнатура формата gzip (байты 1f 8b)
+
+    private final ReadableByteChannel channel;  // Канал сжатых данных
+    private final ChunkPipe pipe;       // Канал распакованных данных
+
+    /**
+     * Проверяет, сжат ли файл в формате gzip, по первым двум байтам. Позиция канала не изменяется.
+     * @param channel Канал файла.
+     * @return true, если файл начинается с сигнатуры gzip.
+     */
+    public static boolean isCompressed(FileChannel channel) {
+        boolean result = false;
+        ByteBuffer magic = ByteBuffer.allocate(2);
+        try {
+            while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+                // Читаем, пока не получим оба байта или не дойдём до конца файла.
+            }
+            result = isCompressed(magic.flip());
+        } catch (IOException e) {
+            result = false; // Ошибка чтения проявится при обычном чтении файла.
+        }
+        return result;
+    }
+
+    /**
+     * Проверяет, сжаты ли данные в формате gzip, по уже прочитанным первым байтам - для потоковых данных,
+     * которые невозможно перечитать (см. StreamChannel).
+     * @param magic Первые байты данных.
+     * @return true, если данные начинаются с сигнатуры gzip.
+     */
+    public static boolean isCompressed(ByteBuffer magic) {
+        return magic.remaining() == 2 && ((magic.get(0) & 0xff) | (magic.get(1) & 0xff) << 8) == GZIP_MAGIC;
+    }
+
+    /**
+     * Запускает распаковку файла в фоновом потоке.
+     * @param channel Канал сжатых данных. Закрывается по завершении распаковки.
+     * @param name Имя файла - для имени потока выполнения.
+     * @return Канал чтения распакованных данных. Его закрытие прерывает распаковку.
+     */
+    public static ReadableByteChannel start(ReadableByteChannel channel, String name) {
+        ChunkPipe pipe = new ChunkPipe(CHUNK_SIZE, CHUNKS);
+        Thread thread = new Thread(new Decompressor(channel, pipe), "cftsort-gunzip " + name);
+        thread.setDaemon(true);
+        thread.start();
+        return pipe.getSource();
+    }
+
+    @Override
+    public void run() {
+        try (InputStream input = new GZIPInputStream(Channels.newInputStream(channel), CHUNK_SIZE)) {
+            byte[] bytes = new byte[CHUNK_SIZE];
+            int count;
+            while ((count = input.read(bytes)) >= 0) {
+                pipe.getSink().write(ByteBuffer.wrap(bytes, 0, count));
+            }
+            pipe.getSink().close();
+        } catch (IOException e) {
+            try {
+                pipe.fail(e); // Считыватель сообщит об ошибке как об ошибке чтения файла.
+            } catch (IOException ignored) {
+                // Ожидание прервано - считыватель уже закрыт.
+            }
+        }
+    }
+
+    private Decompressor(ReadableByteChannel channel, ChunkPipe pipe) {
+        this.channel = channel;
+        this.pipe = pipe;
+    }
+}
@@ -0,0 +1,236 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.BufferedOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Вывод диагностических сообщений.
+ * Сообщения передаются в отдельный поток выполнения через очередь ограниченной ёмкости и выводятся
+ * в буферизованный приёмник пакетами - потоки сортировки не ждут вывода в консоль на каждое сообщение.
+ * Текст сообщения о строке входного файла формируется только в потоке вывода: отправитель передаёт
+ * имя файла, номер строки и причину (см. WarningReason).
+ * Предупреждения одной причины в одном файле могут ограничиваться количеством и прореживаться:
+ * решение принимает сам обработчик файла по своему счётчику (см. isReported()), а о невыведенных
+ * предупреждениях сообщается итоговой сводкой при завершении работы.
+ * Пока вывод не запущен (например, при использовании программы как библиотеки),
+ * сообщения выводятся сразу в System.out.
+ */
+public class Diagnostics {
+    private final static int QUEUE_CAPACITY = 1 << 12;     // Ёмкость очереди сообщений
+    private final static int SINK_BUFFER_SIZE = 1 << 16;    // Размер буфера приёмника сообщений
+
+    private static volatile Diagnostics instance;   // Запущенный вывод, null - сообщения выводятся сразу
+    private static volatile long limit = Long.MAX_VALUE;    // Наибольшее количество выводимых предупреждений
+    private static volatile long sample = 1;        // Выводится каждое sample-е предупреждение
+
+    /**
+     * Сообщение в очереди вывода.
+     */
+    private static class Event {
+        private final ErrorLevel level;     // Уровень ошибки, null - текст выводится как есть
+        private final String source;        // Имя входного файла
+        private final long line;            // Номер строки во входном файле
+        private final WarningReason reason; // Причина предупреждения о строке, null - сообщение задано текстом
+        private final String text;          // Текст сообщения либо дополнение к причине, может быть null
+
+        private Event(ErrorLevel level, String source, long line, WarningReason reason, String text) {
+            this.level = level;
+            this.source = source;
+            this.line = line;
+            this.reason = reason;
+            this.text = text;
+        }
+
+        /**
+         * @return Текст сообщения для вывода.
+         */
+        private String format() {
+            StringBuilder sb = new StringBuilder();
+            if (level != null) {
+                sb.append(level.getPrefix()).append(": ");
+            }
+            if (reason != null) {
+                sb.append('"').append(source).append("\" line ").append(line).append(reason.getDelimiter())
+                        .append(reason.getMessage());
+            }
+            if (text != null) {
+                sb.append(text);
+            }
+            return sb.toString();
+        }
+    }
+
+    private final static Event STOP = new Event(null, null, 0, null, null); // Признак завершения вывода
+
+    private final BlockingQueue<Event> queue;               // Очередь сообщений
+    private final PrintStream sink;                         // Буферизованный приёмник сообщений
+    private final boolean closeSink;                        // Приёмник закрывается по завершении вывода
+    private final Map<List<Object>, long[]> suppressed;     // Невыведенные предупреждения по файлам и причинам
+    private final Thread thread;                            // Поток вывода
+
+    /**
+     * Вывод сообщений из очереди: все накопившиеся сообщения выводятся пакетом,
+     * приёмник сбрасывается, когда очередь опустела.
+     */
+    private void run() {
+        List<Event> batch = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch);
+            for (Event event: batch) {
+                if (event == STOP) {
+                    stopped = true;
+                } else {
+                    sink.println(event.format());
+                }
+            }
+            batch.clear();
+            sink.flush();
+        }
+    }
+
+    /**
+     * Передаёт сообщение на вывод. Если очередь заполнена, ожидает освобождения места.
+     * @param event Сообщение.
+     */
+    private static void send(Event event) {
+        Diagnostics diagnostics = instance;
+        if (diagnostics == null) {
+            System.out.println(event.format());
+        } else {
+            try {
+                diagnostics.queue.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                System.out.println(event.format());
+            }
+        }
+    }
+
+    /**
+     * Предупреждение о строке входного файла. Текст сообщения формируется при выводе.
+     * @param source Имя входного файла.
+     * @param line Номер строки.
+     * @param reason Причина предупреждения.
+     */
+    public static void warning(String source, long line, WarningReason reason) {
+        send(new Event(ErrorLevel.WARNING, source, line, reason, null));
+    }
+
+    /**
+     * Предупреждение о строке входного файла с дополнением - например, с описанием ошибки чтения.
+     * @param source Имя входного файла.
+     * @param line Номер строки.
+     * @param reason Причина предупреждения.
+     * @param detail Дополнение, выводимое сразу после сообщения причины.
+     */
+    public static void warning(String source, long line, WarningReason reason, String detail) {
+        send(new Event(ErrorLevel.WARNING, source, line, reason, detail));
+    }
+
+    /**
+     * Сообщение, заданное текстом.
+     * @param level Уровень ошибки, null - текст выводится без префикса.
+     * @param message Текст сообщения.
+     */
+    public static void message(ErrorLevel level, String message) {
+        send(new Event(level, null, 0, null, message));
+    }
+
+    /**
+     * Проверяет, выводится ли предупреждение с заданным порядковым номером среди предупреждений
+     * одной причины в одном файле.
+     * @param occurrence Порядковый номер предупреждения, начиная с 1.
+     * @return true, если предупреждение нужно вывести.
+     */
+    public static boolean isReported(long occurrence) {
+        long index = occurrence - 1;
+        return index % sample == 0 && index / sample < limit;
+    }
+
+    /**
+     * @param occurrences Количество предупреждений одной причины в одном файле.
+     * @return Сколько из них выводится (см. isReported()).
+     */
+    public static long getReportedCount(long occurrences) {
+        return Math.min(limit, (occurrences + sample - 1) / sample);
+    }
+
+    /**
+     * Учитывает невыведенные предупреждения для итоговой сводки.
+     * @param source Имя входного файла.
+     * @param reason Причина предупреждений.
+     * @param count Количество невыведенных предупреждений.
+     */
+    public static void suppressed(String source, WarningReason reason, long count) {
+        Diagnostics diagnostics = instance;
+        if (diagnostics != null && count > 0) {
+            synchronized (diagnostics.suppressed) {
+                diagnostics.suppressed.computeIfAbsent(List.of(source, reason), key -> new long[1])[0] += count;
+            }
+        }
+    }
+
+    /**
+     * Запускает вывод сообщений в отдельном потоке.
+     * @param sink Приёмник сообщений.
+     * @param closeSink true - приёмник закрывается по завершении вывода.
+     * @param maxWarnings Наибольшее количество выводимых предупреждений одной причины в одном файле.
+     * @param sampleWarnings Выводится каждое sampleWarnings-е предупреждение одной причины в одном файле.
+     */
+    public static void start(PrintStream sink, boolean closeSink, long maxWarnings, long sampleWarnings) {
+        limit = maxWarnings;
+        sample = sampleWarnings;
+        Diagnostics diagnostics = new Diagnostics(sink, closeSink);
+        diagnostics.thread.start();
+        instance = diagnostics;
+    }
+
+    /**
+     * Завершает вывод: дожидается вывода всех сообщений из очереди и выводит итоговую сводку
+     * о невыведенных предупреждениях.
+     */
+    public static void stop() {
+        Diagnostics diagnostics = instance;
+        if (diagnostics != null) {
+            instance = null;
+            try {
+                diagnostics.queue.put(STOP);
+                diagnostics.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Map.Entry<List<Object>, long[]> entry: diagnostics.suppressed.entrySet()) {
+                diagnostics.sink.println(ErrorLevel.WARNING.getPrefix() + ": \"" + entry.getKey().get(0) + "\": "
+                        + entry.getValue()[0] + " more warnings \""
+                        + ((WarningReason) entry.getKey().get(1)).getMessage() + "\" not shown");
+            }
+            diagnostics.sink.flush();
+            if (diagnostics.closeSink) {
+                diagnostics.sink.close();
+            }
+            limit = Long.MAX_VALUE;
+            sample = 1;
+        }
+    }
+
+    private Diagnostics(PrintStream sink, boolean closeSink) {
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.sink = new PrintStream(new BufferedOutputStream(sink, SINK_BUFFER_SIZE), false);
+        this.closeSink = closeSink;
+        this.suppressed = new LinkedHashMap<>();
+        this.thread = new Thread(this::run, "cftsort-diagnostics");
+        this.thread.setDaemon(true);
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Слияние входных файлов, открытых одновременно, целиком: при N потоках больше одного - параллельно
+ * по группам (см. ParallelMerge), иначе - последовательно. Чтение каждого файла начинается с нижней
+ * границы диапазона ключей (см. MergeContext.seekRange()).
+ */
+public class DirectMerge implements MergeMode {
+    private final MergeContext context;     // Окружение слияния
+    private final List<FileHandler> files;  // Обработчики входных файлов
+
+    @Override
+    public void merge() throws IOException {
+        MergeInput[] inputs = new MergeInput[files.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            FileHandler file = files.get(i);
+            String name = file.getFileName(); // Позиционированный файл получает имя с диапазоном байтов.
+            context.seekRange(file);
+            inputs[i] = context.createInput(file, name, true);
+        }
+        context.merge(inputs);
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param files Обработчики входных файлов. Их счётчики регистрируются сразу.
+     */
+    public DirectMerge(MergeContext context, List<FileHandler> files) {
+        this.context = context;
+        this.files = files;
+        for (FileHandler file: files) {
+            context.getMetrics().register(file.getMetrics());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Внешняя сортировка неотсортированных входных файлов.
+ * Входные файлы считываются в блоки в пределах бюджета памяти, блоки сортируются в N потоках
+ * и сбрасываются во временные файлы-серии (см. ExternalSorter), затем серии сливаются обычным слиянием -
+ * при N больше одного параллельным, при количестве серий больше --fan-in - каскадным (см. CascadedMerge).
+ * Входные файлы, не открытые заранее (см. --fan-in), открываются и читаются по одному.
+ * Временные файлы удаляются по завершении.
+ */
+public class ExternalSortMerge implements MergeMode {
+    private final MergeContext context;         // Окружение слияния
+    private final List<FileHandler> sources;    // Обработчики входных данных
+    private final List<String> deferredNames;   // Входные файлы, открываемые по одному, null - все открыты
+
+    @Override
+    public void merge() throws IOException {
+        ExecutorService executor = MergeContext.createExecutor(context.getThreads(), "cftsort-sort");
+        ExternalSorter externalSorter = context.createExternalSorter(executor);
+        try {
+            for (FileHandler file: sources) {
+                externalSorter.read(file);
+            }
+            if (deferredNames != null) {
+                for (String name: deferredNames) {
+                    FileHandler file = context.openInput(name);
+                    if (file != null) {
+                        try {
+                            externalSorter.read(file);
+                        } finally {
+                            file.close();
+                        }
+                    }
+                }
+            }
+            OutputBuffer output = context.getOutputBuffer();
+            if (!externalSorter.finish(output, context.createAggregator(output))) {
+                List<String> runs = new ArrayList<>();
+                for (Path run: externalSorter.getRuns()) {
+                    runs.add(run.toString());
+                }
+                new CascadedMerge(context, runs, new HashSet<>(runs)).merge();
+            }
+        } finally {
+            MergeContext.shutdown(executor);
+            externalSorter.close();
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param sources Обработчики входных данных. Их счётчики регистрируются сразу.
+     * @param deferredNames Входные файлы, не открытые заранее, null - все входные файлы открыты.
+     */
+    public ExternalSortMerge(MergeContext context, List<FileHandler> sources, List<String> deferredNames) {
+        this.context = context;
+        this.sources = sources;
+        this.deferredNames = deferredNames;
+        for (FileHandler source: sources) {
+            context.getMetrics().register(source.getMetrics());
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Формирование отсортированных серий из неотсортированных входных данных - первая фаза внешней сортировки.
+ * Элементы считываются в блоки, объём которых ограничен бюджетом памяти. Заполненный блок сортируется
+ * и сбрасывается во временный файл-серию в пуле потоков, пока считывается следующий блок.
+ * Серии записываются в кодировке UTF-8, по одному элементу в строке, и сливаются обычным слиянием.
+ * Если все данные уместились в один блок, серии не создаются - блок записывается прямо в выходной файл.
+ * Элементы вне диапазона ключей (см. setRange()) отбрасываются при чтении и не занимают память блоков.
+ */
+public class ExternalSorter {
+    public final static long DEFAULT_MEMORY = 1L << 26;    // Бюджет памяти по умолчанию
+    private final static int INITIAL_CAPACITY = 1 << 10;   // Начальная ёмкость блока
+    private final static int NUMBER_SIZE = Long.BYTES;      // Оценка объёма памяти числа в блоке
+    private final static int STRING_OVERHEAD = 64;          // Оценка объёма памяти строки без учёта символов
+    private final static int KEY_OVERHEAD = 48;             // Оценка объёма памяти ключа сортировки без учёта байт
+    private final static int KEY_BYTES_PER_CHAR = 3;        // Оценка количества байт ключа сортировки на символ
+    private final static int RUN_BUFFER_SIZE = 1 << 18;     // Размер буфера записи серии
+    private final static int MAX_COUNT = Integer.MAX_VALUE - 8; // Максимальное количество элементов в блоке
+
+    private final DataType dataType;        // Тип данных
+    private final SortType sortType;        // Порядок сортировки
+    private final Collation collation;      // Правило сравнения строк
+    private final RecordKey recordKey;      // Извлечение ключей записей, null - строки сортируются целиком
+    private final Path directory;           // Каталог временных файлов
+    private final long chunkBudget;         // Бюджет памяти одного блока в байтах
+    private final int threads;              // Количество одновременно сортируемых блоков
+    private final ExecutorService executor; // Пул потоков сортировки блоков
+    private final Deque<Future<?>> pending; // Сортируемые блоки
+    private final List<Path> runs;          // Временные файлы-серии
+    private long[] numbers;                 // Блок чисел
+    private String[] strings;               // Блок строк
+    private byte[][] keys;                  // Ключи записей блока строк, null - если строки сортируются целиком
+    private int count;                      // Количество элементов в блоке
+    private long used;                      // Оценка объёма памяти, занятой блоком
+    private Object lowerKey;                // Нижняя граница диапазона ключей, null - без границы
+    private Object upperKey;                // Верхняя граница диапазона ключей (не включается), null - без границы
+    private long limit = Long.MAX_VALUE;    // Наибольшее количество строк, записываемых в выходной файл
+
+    public List<Path> getRuns() { return runs; }
+
+    /**
+     * Ограничивает количество строк, записываемых прямо в выходной файл (см. finish()). Серии содержат
+     * все элементы - ограничение при их слиянии задаёт вызывающая сторона.
+     * @param limit Наибольшее количество строк.
+     */
+    public void setLimit(long limit) { this.limit = limit; }
+
+    /**
+     * Ограничивает данные диапазоном ключей [lowerKey, upperKey) в порядке сортировки.
+     * @param lowerKey Нижняя граница (см. MergeInput.getCurrentKey()), null - без границы.
+     * @param upperKey Верхняя граница, не входящая в диапазон, null - без границы.
+     */
+    public void setRange(Object lowerKey, Object upperKey) {
+        this.lowerKey = lowerKey;
+        this.upperKey = upperKey;
+    }
+
+    /**
+     * Проверяет, входит ли элемент в диапазон ключей.
+     * @param key Ключ элемента в том же виде, что и у входных потоков слияния (см. MergeInput.getCurrentKey()).
+     * @return true, если элемент не предшествует нижней границе и предшествует верхней.
+     */
+    private boolean isInRange(Object key) {
+        int multiplier = sortType.getMultiplier();
+        return (lowerKey == null || MergeInput.compareKeys(key, lowerKey) * multiplier >= 0)
+                && (upperKey == null || MergeInput.compareKeys(key, upperKey) * multiplier < 0);
+    }
+
+    /**
+     * Дожидается завершения сортировки блока.
+     * @param task Задача сортировки блока.
+     * @throws IOException При ошибке записи серии.
+     */
+    private static void await(Future<?> task) throws IOException {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Строка блока вместе с ключом сортировки.
+     */
+    private static class KeyedString {
+        private final byte[] key;
+        private final String value;
+
+        private KeyedString(byte[] key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Сортирует блок строк по ключам сортировки: ключ вычисляется один раз для каждой строки.
+     * @param strings Блок строк.
+     * @param keys Ключи записей, извлечённые при чтении, - переставляются вместе со строками,
+     *             null - ключи вычисляются по правилу сравнения строк.
+     * @param count Количество элементов.
+     * @param parallel true - блок сортируется параллельно.
+     */
+    private void sortByKeys(String[] strings, byte[][] keys, int count, boolean parallel) {
+        KeyedString[] keyed = new KeyedString[count];
+        for (int i = 0; i < count; i++) {
+            keyed[i] = new KeyedString(keys != null ? keys[i] : collation.getKey(strings[i]), strings[i]);
+        }
+        Comparator<KeyedString> comparator = (a, b) -> Collation.compareKeys(a.key, b.key);
+        if (parallel) {
+            Arrays.parallelSort(keyed, comparator);
+        } else {
+            Arrays.sort(keyed, comparator);
+        }
+        for (int i = 0; i < count; i++) {
+            strings[i] = keyed[i].value;
+            if (keys != null) {
+                keys[i] = keyed[i].key;
+            }
+        }
+    }
+
+    /**
+     * Записывает отсортированный блок через обработку групп равных элементов: равные элементы блока
+     * идут подряд, поэтому каждый сравнивается только с предыдущим записанным.
+     * @param numbers Блок чисел, null - если блок строк.
+     * @param strings Блок строк.
+     * @param keys Ключи записей блока строк, null - если строки сортируются целиком.
+     * @param count Количество элементов.
+     * @param ascending true - блок записывается с начала.
+     * @param aggregator Обработка групп равных элементов.
+     * @param limit Наибольшее количество записываемых групп.
+     * @param output Буфер записи.
+     * @throws IOException При ошибке записи.
+     */
+    private void writeAggregated(long[] numbers, String[] strings, byte[][] keys, int count, boolean ascending,
+                                 Aggregator aggregator, long limit, OutputBuffer output) throws IOException {
+        int last = -1; // Индекс последнего учтённого элемента
+        long groups = 0; // Количество записанных групп
+        boolean full = false; // Записано limit групп, и следующий элемент начинает новую
+        for (int i = 0; i < count && !full; i++) {
+            int index = ascending ? i : count - 1 - i;
+            boolean newGroup;
+            if (last < 0) {
+                newGroup = true;
+            } else if (numbers != null) {
+                newGroup = numbers[index] != numbers[last];
+            } else if (keys != null) {
+                newGroup = !Arrays.equals(keys[index], keys[last]);
+            } else {
+                newGroup = collation.compare(strings[index], strings[last]) != 0;
+            }
+            full = newGroup && groups == limit;
+            if (!full) {
+                long value = 0;
+                if (aggregator.isSummed() && recordKey.extract(strings[index])) { // Запись уже проверена при чтении.
+                    value = recordKey.getValue();
+                }
+                if (aggregator.add(newGroup, value)) {
+                    if (numbers != null) {
+                        output.writeLong(numbers[index]);
+                    } else {
+                        output.writeString(strings[index]);
+                    }
+                    groups++;
+                }
+                last = index;
+            }
+        }
+        aggregator.finish();
+    }
+
+    /**
+     * Сортирует блок и записывает его элементы в порядке сортировки.
+     * Блок сортируется по возрастанию, при сортировке по убыванию записывается с конца.
+     * Равные элементы неразличимы в выходных данных, поэтому устойчивость сортировки не требуется;
+     * порядок строк, равных по правилу сравнения, но различных (например, без учёта регистра), не определён.
+     * @param numbers Блок чисел, null - если блок строк.
+     * @param strings Блок строк.
+     * @param keys Ключи записей блока строк, null - если строки сортируются целиком.
+     * @param count Количество элементов.
+     * @param parallel true - блок сортируется параллельно.
+     * @param aggregator Обработка групп равных элементов, null - записываются все элементы.
+     * @param limit Наибольшее количество записываемых строк.
+     * @param output Буфер записи.
+     * @throws IOException При ошибке записи.
+     */
+    private void writeChunk(long[] numbers, String[] strings, byte[][] keys, int count, boolean parallel,
+                            Aggregator aggregator, long limit, OutputBuffer output) throws IOException {
+        boolean ascending = sortType.getMultiplier() > 0;
+        if (numbers != null) {
+            if (parallel) {
+                Arrays.parallelSort(numbers, 0, count);
+            } else {
+                Arrays.sort(numbers, 0, count);
+            }
+        } else if (keys != null || collation.isKeyed()) {
+            sortByKeys(strings, keys, count, parallel);
+        } else if (parallel) {
+            Arrays.parallelSort(strings, 0, count, collation);
+        } else {
+            Arrays.sort(strings, 0, count, collation);
+        }
+        int written = (int) Math.min(count, limit); // Количество записываемых элементов без обработки групп
+        if (aggregator != null) {
+            writeAggregated(numbers, strings, keys, count, ascending, aggregator, limit, output);
+        } else if (numbers != null) {
+            for (int i = 0; i < written; i++) {
+                output.writeLong(numbers[ascending ? i : count - 1 - i]);
+                output.writeLineEnd();
+            }
+        } else {
+            for (int i = 0; i < written; i++) {
+                output.writeString(strings[ascending ? i : count - 1 - i]);
+                output.writeLineEnd();
+            }
+        }
+    }
+
+    /**
+     * Передаёт заполненный блок на сортировку и запись в новую серию, после чего начинается новый блок.
+     * Если все потоки пула заняты, ожидает завершения самого раннего блока - так объём памяти
+     * всех блоков не превышает бюджет.
+     * @throws IOException При ошибке создания или записи серии.
+     */
+    private void spill() throws IOException {
+        if (count > 0) {
+            while (pending.size() >= threads) {
+                await(pending.removeFirst());
+            }
+            long[] chunkNumbers = numbers;
+            String[] chunkStrings = strings;
+            byte[][] chunkKeys = keys;
+            int chunkCount = count;
+            Path run = Files.createTempFile(directory, "cftsort", ".run");
+            runs.add(run);
+            pending.addLast(executor.submit(() -> {
+                OutputBuffer runOutput = new OutputBuffer(FileChannel.open(run, StandardOpenOption.WRITE),
+                        RUN_BUFFER_SIZE, false, StandardCharsets.UTF_8);
+                try {
+                    writeChunk(chunkNumbers, chunkStrings, chunkKeys, chunkCount, false, null, Long.MAX_VALUE,
+                            runOutput);
+                } finally {
+                    runOutput.close();
+                }
+                return null;
+            }));
+            numbers = null;
+            strings = null;
+            keys = null;
+            count = 0;
+            used = 0;
+        }
+    }
+
+    /**
+     * Увеличивает ёмкость блока, если он заполнен.
+     */
+    private void ensureCapacity() {
+        int capacity = (int) Math.min(2L * count, MAX_COUNT);
+        if (numbers != null && count == numbers.length) {
+            // Массив чисел не растёт сверх бюджета блока.
+            numbers = Arrays.copyOf(numbers, (int) Math.min(capacity, chunkBudget / NUMBER_SIZE));
+        } else if (strings != null && count == strings.length) {
+            strings = Arrays.copyOf(strings, capacity);
+            if (keys != null) {
+                keys = Arrays.copyOf(keys, capacity);
+            }
+        }
+    }
+
+    /**
+     * Добавляет строку в блок. В режиме ключевых полей вместе со строкой сохраняется извлечённый ключ записи.
+     * @param s Строка.
+     * @throws IOException При ошибке создания или записи серии.
+     */
+    private void addString(String s) throws IOException {
+        long size = STRING_OVERHEAD + 2L * s.length();
+        if (recordKey != null) {
+            size += KEY_OVERHEAD + recordKey.getLength();
+        } else if (collation.isKeyed()) { // Ключи сортировки вычисляются для всего блока при его сортировке.
+            size += KEY_OVERHEAD + (long) KEY_BYTES_PER_CHAR * s.length();
+        }
+        if (count == MAX_COUNT || (count > 0 && used + size > chunkBudget)) {
+            spill();
+        }
+        if (strings == null) {
+            strings = new String[INITIAL_CAPACITY];
+            keys = recordKey != null ? new byte[INITIAL_CAPACITY][] : null;
+        }
+        ensureCapacity();
+        if (keys != null) {
+            keys[count] = recordKey.toArray();
+        }
+        strings[count++] = s;
+        used += size;
+    }
+
+    /**
+     * Считывает все валидные элементы входного файла в блоки.
+     * Невалидные строки пропускаются с предупреждением - так же, как при слиянии.
+     * Порядок элементов во входном файле не проверяется, элементы вне диапазона ключей отбрасываются.
+     * В режиме ключевых полей ключ записи извлекается при чтении и хранится в блоке вместе с записью.
+     * @param file Обработчик входного файла.
+     * @throws IOException При ошибке создания или записи серии.
+     */
+    public void read(FileHandler file) throws IOException {
+        if (recordKey != null) {
+            file.setSpacesAllowed(true);
+        }
+        boolean ranged = lowerKey != null || upperKey != null;
+        if (dataType == DataType.STRING || recordKey != null) {
+            String s;
+            while ((s = file.getNextString()) != null) {
+                if (recordKey != null && !recordKey.extract(s)) {
+                    file.rejectRecord();
+                } else if (!ranged || isInRange(recordKey != null ? new Collation.Key(recordKey.toArray())
+                        : collation.getSortKey(s))) {
+                    addString(s);
+                }
+            }
+        } else {
+            long minValue = dataType == DataType.INT ? Integer.MIN_VALUE : Long.MIN_VALUE;
+            long maxValue = dataType == DataType.INT ? Integer.MAX_VALUE : Long.MAX_VALUE;
+            while (file.nextLong(minValue, maxValue)) {
+                if (!ranged || isInRange(file.getNumber())) {
+                    if (count == MAX_COUNT || used + NUMBER_SIZE > chunkBudget) {
+                        spill();
+                    }
+                    if (numbers == null) {
+                        numbers = new long[(int) Math.min(INITIAL_CAPACITY, chunkBudget / NUMBER_SIZE)];
+                    }
+                    ensureCapacity();
+                    numbers[count++] = file.getNumber();
+                    used += NUMBER_SIZE;
+                }
+            }
+        }
+    }
+
+    /**
+     * Завершает формирование серий.
+     * Если серий ещё нет, единственный блок сортируется параллельно и записывается прямо в выходной файл.
+     * Иначе последний блок сбрасывается в серию, и метод дожидается записи всех серий.
+     * Группы равных элементов обрабатываются только при записи в выходной файл - серии содержат все элементы.
+     * @param output Буфер записи в выходной файл.
+     * @param aggregator Обработка групп равных элементов, пишущая в output, null - записываются все элементы.
+     * @return true, если данные уже записаны в выходной файл, false, если серии нужно слить.
+     * @throws IOException При ошибке записи.
+     */
+    public boolean finish(OutputBuffer output, Aggregator aggregator) throws IOException {
+        boolean result = runs.isEmpty();
+        if (result && count > 0) { // Блок создаётся при первом валидном элементе - его может не быть.
+            writeChunk(numbers, strings, keys, count, threads > 1, aggregator, limit, output);
+            numbers = null;
+            strings = null;
+            keys = null;
+            count = 0;
+        } else {
+            spill();
+            while (!pending.isEmpty()) {
+                await(pending.removeFirst());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Освобождение ресурсов - отмена незавершённой сортировки блоков и удаление временных файлов-серий.
+     * Вызывается после остановки пула потоков, когда серии уже не записываются.
+     */
+    public void close() {
+        for (Path run: runs) {
+            try {
+                Files.deleteIfExists(run);
+            } catch (IOException e) {
+                Diagnostics.message(ErrorLevel.WARNING, "cannot delete temporary file \"" + run
+                        + "\"\n" + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param dataType Тип данных.
+     * @param sortType Порядок сортировки.
+     * @param collation Правило сравнения строк.
+     * @param keyFields Ключевые поля записей, null - строки сортируются целиком.
+     * @param directory Каталог временных файлов-серий.
+     * @param memory Бюджет памяти всех блоков в байтах.
+     * @param threads Количество потоков сортировки блоков.
+     * @param executor Пул потоков сортировки блоков.
+     */
+    public ExternalSorter(DataType dataType, SortType sortType, Collation collation, KeyFields keyFields,
+                          Path directory, long memory, int threads, ExecutorService executor) {
+        this.dataType = dataType;
+        this.sortType = sortType;
+        this.collation = collation;
+        this.recordKey = keyFields != null ? new RecordKey(keyFields) : null;
+        this.directory = directory;
+        this.threads = threads;
+        this.executor = executor;
+        // Бюджет делится между сортируемыми блоками и блоком, который заполняется в это время.
+        this.chunkBudget = Math.max(memory / (threads + 1), NUMBER_SIZE);
+        this.pending = new ArrayDeque<>();
+        this.runs = new ArrayList<>();
+    }
+}
@@ -1,110 +1,312 @@
 package com.github.mnovikov37.cftsort;
 
-import java.io.*;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 
 /**
  * Обработчик взаимодействия с входными файлами.
+ * Файл читается построчно на уровне байтов: строки проверяются и числа разбираются без создания объектов String.
  */
 public class FileHandler {
+    private final static int METRICS_INTERVAL = (1 << 12) - 1; // Маска номера строки для публикации счётчиков
+
     /**
      * Имя входного файла.
      * Задаётся конструктором.
      */
     private String fileName;
     /**
-     * Считыватель данных входного файла.
+     * Построчный считыватель данных входного файла.
      * Создаётся в конструкторе на основании fileName
      */
-    private BufferedReader reader;
+    private LineScanner scanner;
     /**
      * Номер строки в файле.
      * Используется при формировании информации об ошибках.
      */
     private long lineNumber;
+    /**
+     * Последнее считанное число.
+     * Заполняется функцией nextLong().
+     */
+    private long number;
+    /**
+     * Канал входного файла - для позиционного чтения его фрагментов.
+     * null, если входные данные - не файл либо сжатый файл.
+     */
+    private FileChannel fileChannel;
+    /**
+     * Признак подавления предупреждений - при пробном чтении, результаты которого не попадают в сортировку.
+     */
+    private boolean quiet;
+    /**
+     * Строки с пробелами не пропускаются - в режиме записей с ключевыми полями (см. RecordInput).
+     */
+    private boolean spacesAllowed;
+    /**
+     * Канал сжатого файла - для подсчёта прочитанных байт. null, если файл не сжат.
+     */
+    private FileChannel compressedChannel;
+    /**
+     * Канал потоковых входных данных - стандартного ввода либо именованного канала.
+     * null, если входные данные - файл.
+     */
+    private StreamChannel stream;
+    /**
+     * Опубликованные счётчики обработчика.
+     */
+    private InputMetrics metrics;
+    /**
+     * Счётчики строк: валидные строки, пропущенные пустые строки, строки с пробелами и строки неверного формата.
+     * Изменяются только потоком, читающим файл, и периодически публикуются в metrics.
+     */
+    private long validLines;
+    private long skippedEmpty;
+    private long skippedSpace;
+    private long skippedFormat;
+    private long skippedKey;    // Записи с невалидным ключевым полем (см. rejectRecord())
+    /**
+     * Индекс файла, невалидные строки которого пропускаются без проверки, null - строки проверяются.
+     */
+    private InputIndex index;
+    /**
+     * Номер следующей невалидной строки индекса, которая может встретиться при чтении.
+     */
+    private int indexPosition;
+    /**
+     * Индекс, в который записываются невалидные строки при предварительном просмотре, null - не записываются.
+     */
+    private InputIndex recorder;
 
     public long getLineNumber() { return lineNumber; }
+    public void setLineNumber(long lineNumber) { this.lineNumber = lineNumber; }
+    public long getNumber() { return number; }
     public String getFileName() { return fileName; }
+    public LineScanner getScanner() { return scanner; }
+    public FileChannel getFileChannel() { return fileChannel; }
+    public StreamChannel getStream() { return stream; }
+    public void setQuiet(boolean quiet) { this.quiet = quiet; }
+    public void setSpacesAllowed(boolean spacesAllowed) { this.spacesAllowed = spacesAllowed; }
+    public InputMetrics getMetrics() { return metrics; }
+    public InputIndex getIndex() { return index; }
+    public void setIndex(InputIndex index) { this.index = index; }
+    public void setRecorder(InputIndex recorder) { this.recorder = recorder; }
 
     /**
-     * Проверяет наличие пробелов в строке.
-     * @param s проверяемая строка.
-     * @return true, если пробелы обнаружены, false, если нет.
+     * Публикует счётчики обработчика. Вызывается потоком, читающим файл, - раз в несколько тысяч строк,
+     * по достижении конца файла и при закрытии.
      */
-    private boolean containsSpace(String s) {
-        boolean result = false;
-        for (int i = 0; !result && i < s.length(); i++) {
-            if (s.charAt(i) == ' ') {
-                result = true;
+    private void publishMetrics() {
+        long bytes = scanner.getConsumed();
+        if (compressedChannel != null) { // Для сжатого файла прогресс считается по сжатым данным.
+            try {
+                bytes = compressedChannel.position();
+            } catch (IOException e) { // Канал закрывается по завершении распаковки - файл прочитан целиком.
+                bytes = metrics.getSize();
             }
         }
+        metrics.update(validLines - skippedFormat - skippedKey, skippedEmpty, skippedSpace,
+                skippedFormat + skippedKey, bytes, scanner.getReadNanos());
+    }
+
+    /**
+     * @param channel Канал файла.
+     * @return Размер файла, -1 - если его невозможно определить.
+     */
+    private static long sizeOf(FileChannel channel) {
+        long result;
+        try {
+            result = channel.size();
+        } catch (IOException e) {
+            result = -1;
+        }
         return result;
     }
 
     /**
-     * Считывает очередную строку в файле.
-     * Если считываемая строка валидна - возвращает её,
-     * если не валидна - считывает следующую строку, пока не дойдёт до валидной строки,
+     * Выводит пользователю предупреждение о пропущенной текущей строке файла.
+     * Текст сообщения формируется при выводе; выводятся ли предупреждения этой причины, решается
+     * по их количеству в файле (см. Diagnostics.isReported()).
+     * @param reason Причина пропуска строки.
+     * @param occurrence Порядковый номер предупреждения этой причины в файле.
+     */
+    private void printWarning(WarningReason reason, long occurrence) {
+        if (!quiet && Diagnostics.isReported(occurrence)) {
+            Diagnostics.warning(fileName, lineNumber, reason);
+        }
+    }
+
+    /**
+     * Учитывает пропущенную текущую строку файла: записывает её в индекс при предварительном просмотре
+     * и выводит предупреждение.
+     * @param reason Причина пропуска строки.
+     * @param occurrence Порядковый номер предупреждения этой причины в файле.
+     */
+    private void skipped(WarningReason reason, long occurrence) {
+        if (recorder != null) {
+            recorder.addSkipped(scanner.getLineOffset(), reason);
+        }
+        printWarning(reason, occurrence);
+    }
+
+    /**
+     * Ищет текущую строку среди невалидных строк индекса.
+     * @return Причина пропуска строки, null, если строка не отмечена в индексе как невалидная.
+     */
+    private WarningReason findSkipped() {
+        long offset = scanner.getLineOffset();
+        // Фрагмент файла может начинаться не с начала - строки индекса до него пропускаются.
+        while (indexPosition < index.getSkippedCount() && index.getSkippedOffset(indexPosition) < offset) {
+            indexPosition++;
+        }
+        WarningReason result = null;
+        if (indexPosition < index.getSkippedCount() && index.getSkippedOffset(indexPosition) == offset) {
+            result = index.getSkippedReason(indexPosition++);
+        }
+        return result;
+    }
+
+    /**
+     * Пропускает текущую строку, отмеченную в индексе как невалидная, - без проверки и разбора.
+     * Счётчики и предупреждения - те же, что и при обнаружении невалидной строки чтением.
+     * @param reason Причина пропуска строки.
+     */
+    private void skipKnown(WarningReason reason) {
+        switch (reason) {
+            case EMPTY_LINE -> printWarning(reason, ++skippedEmpty);
+            case LINE_WITH_SPACE -> printWarning(reason, ++skippedSpace);
+            case INVALID_NUMBER -> { // Такие строки учитываются и как прочитанные, см. publishMetrics().
+                validLines++;
+                printWarning(reason, ++skippedFormat);
+            }
+            case INVALID_KEY -> {
+                validLines++;
+                printWarning(reason, ++skippedKey);
+            }
+        }
+    }
+
+    /**
+     * Выводит пользователю предупреждение об ошибке чтения файла.
+     * @param detail Дополнение к сообщению.
+     */
+    private void printReadError(String detail) {
+        if (!quiet) {
+            Diagnostics.warning(fileName, lineNumber, WarningReason.READ_ERROR, detail);
+        }
+    }
+
+    /**
+     * Переходит к очередной строке в файле.
+     * Текущая строка откладывается в считывателе и остаётся доступной как предыдущая валидная строка.
+     * Если считываемая строка не валидна - переходит к следующей строке, пока не дойдёт до валидной строки,
      * либо до конца файла.
      * Ошибки доступа к файлу обрабатываются так же, как конец файла - файл не участвует в дальнейшей сортировке,
      * но данные, уже взятые из файла прежде этого события, включаются в результат работы программы.
      * Функция информирует пользователя обо всех возникших ошибках с указанием имени файла и строки.
-     * @return Следующая строка входного файла.
+     * @return true, если валидная строка найдена, false, если достигнут конец файла.
      */
-    public String getNextString() {
-        String line = null;
-        StringBuilder infoSb = new StringBuilder();
-        infoSb.append(ErrorLevel.WARNING.getPrefix()).append(": \"")
-                .append(fileName).append("\" line ").append(lineNumber).append(": ");
+    public boolean nextLine() {
+        boolean result = false;
+        scanner.keepLine();
         try {
             boolean skip;
             do {
                 skip = false;
-                line = reader.readLine();
+                result = scanner.nextLine();
                 lineNumber++;
-                if (line != null) { // Считываемая строка не должна быть null.
-                    if (line.length() == 0) { // Строки нулевой длины пропускаются.
-                        infoSb.append("empty line - skipped");
-                        System.out.println(infoSb);
+                if (result) {
+                    WarningReason known = index != null ? findSkipped() : null;
+                    if (known != null) { // Строка уже проверена при предварительном просмотре.
+                        skipKnown(known);
+                        skip = true;
+                    } else if (scanner.length() == 0) { // Строки нулевой длины пропускаются.
+                        skippedEmpty++;
+                        skipped(WarningReason.EMPTY_LINE, skippedEmpty);
                         skip = true;
-                    } else if (containsSpace(line)){ // Строки, содержащие пробелы, пропускаются - согласно заданию
-                        infoSb.append("line with space - skipped");
-                        System.out.println(infoSb);
+                    } else if (!spacesAllowed && scanner.containsSpace()) {
+                        // Строки, содержащие пробелы, пропускаются - согласно заданию (кроме записей, см. RecordInput).
+                        skippedSpace++;
+                        skipped(WarningReason.LINE_WITH_SPACE, skippedSpace);
                         skip = true;
                     }
                 }
             } while (skip); // Если считываемая строка пропускается - считываем следующую.
+            if (result) {
+                validLines++;
+            }
         } catch (IOException e) { // При технической ошибке обработка файла завершается с выдачей информации.
-            infoSb.append("cannot read from file - technical error. The file is excluded from the further sorting\n")
-                    .append(e.getMessage());
-            System.out.println(infoSb);
+            printReadError(". The file is excluded from the further sorting\n" + e.getMessage());
+            result = false;
+        }
+        if (!result || (lineNumber & METRICS_INTERVAL) == 0) {
+            publishMetrics();
         }
-        return line;
+        return result;
+    }
+
+    /**
+     * Пропускает текущую строку как запись с невалидным ключевым полем - с предупреждением.
+     * Вызывается входным потоком записей после nextLine() (см. RecordInput).
+     */
+    public void rejectRecord() {
+        skippedKey++;
+        skipped(WarningReason.INVALID_KEY, skippedKey);
+    }
+
+    /**
+     * Пропускает строку без проверки - например, неполную строку в начале фрагмента файла.
+     * @return true, если строка пропущена, false, если достигнут конец файла.
+     */
+    public boolean skipLine() {
+        boolean result = false;
+        try {
+            result = scanner.nextLine();
+        } catch (IOException e) {
+            printReadError("\n" + e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Считывает очередную строку в файле.
+     * Невалидные строки пропускаются - см. nextLine().
+     * @return Следующая строка входного файла, null, если достигнут конец файла.
+     */
+    public String getNextString() {
+        return nextLine() ? scanner.getString() : null;
     }
 
     /**
      * Считывает очередное целое число из текстового файла. Одна строка - одно число.
-     * В случае, если из входной строки невозможно получить целое число,
+     * Число разбирается прямо из байтов строки.
+     * В случае, если из входной строки невозможно получить целое число в заданном диапазоне,
      * пользователю выдаётся предупреждение с указанием номера строки во входном файле,
      * и функция пытается считать число из следующей строки,
      * пока не встретит валидную строку, либо конец файла.
-     * @return Следующее число из входного файла.
+     * Считанное число доступно через getNumber() - без упаковки в объект.
+     * @param minValue Минимальное допустимое значение.
+     * @param maxValue Максимальное допустимое значение.
+     * @return true, если число считано, false, если достигнут конец файла.
      */
-    public Integer getNextInt() {
-        Integer result = null;
+    public boolean nextLong(long minValue, long maxValue) {
+        boolean result = false;
 
         boolean skip;
         do {
             skip = false;
-            String line = getNextString();
-            StringBuilder infoSb = new StringBuilder();
-            infoSb.append(ErrorLevel.WARNING.getPrefix())
-                    .append(": \"").append(fileName).append("\" line ").append(lineNumber).append(": ");
-            if (line != null) {
-                try {
-                    result = Integer.parseInt(line);
-                } catch (NumberFormatException e) {
-                    infoSb.append("invalid number format - skipped");
-                    System.out.println(infoSb);
+            if (nextLine()) {
+                // Число должно входить в диапазон типа.
+                result = scanner.parseLong() && scanner.getNumber() >= minValue && scanner.getNumber() <= maxValue;
+                if (result) {
+                    number = scanner.getNumber();
+                } else {
+                    skippedFormat++;
+                    skipped(WarningReason.INVALID_NUMBER, skippedFormat);
                     skip = true;
                 }
             }
@@ -113,28 +315,126 @@ public class FileHandler {
         return result;
     }
 
+    /**
+     * Начинает чтение файла с заданного смещения - например, с начала диапазона ключей (см. --from).
+     * Вызывается до чтения первой строки, только для обработчика, созданного по имени несжатого файла.
+     * Как и у фрагмента файла, номера строк в сообщениях отсчитываются от смещения, а к имени файла
+     * добавляется читаемая часть.
+     * @param offset Смещение начала строки в байтах.
+     * @throws IOException При ошибке позиционирования файла.
+     */
+    public void seek(long offset) throws IOException {
+        scanner.seek(offset);
+        fileName = fileName + " [bytes " + offset + "-" + fileChannel.size() + "]";
+    }
+
     /**
      * Освобождение ресурсов - закрытие считывателя из файла.
      */
     public void close() {
-        if (reader != null) {
+        if (scanner != null) {
+            publishMetrics();
             try {
-                reader.close();
+                scanner.close();
             } catch (IOException e) {
-                System.out.println(ErrorLevel.WARNING.getPrefix() + ": " + e.getMessage());
+                Diagnostics.message(ErrorLevel.WARNING, e.getMessage());
+            }
+            if (!quiet) { // О предупреждениях, не выведенных из-за ограничения, сообщается в итоговой сводке.
+                Diagnostics.suppressed(fileName, WarningReason.EMPTY_LINE,
+                        skippedEmpty - Diagnostics.getReportedCount(skippedEmpty));
+                Diagnostics.suppressed(fileName, WarningReason.LINE_WITH_SPACE,
+                        skippedSpace - Diagnostics.getReportedCount(skippedSpace));
+                Diagnostics.suppressed(fileName, WarningReason.INVALID_NUMBER,
+                        skippedFormat - Diagnostics.getReportedCount(skippedFormat));
+                Diagnostics.suppressed(fileName, WarningReason.INVALID_KEY,
+                        skippedKey - Diagnostics.getReportedCount(skippedKey));
             }
         }
     }
 
     /**
      * Обработчик входного файла создаётся по имени файла.
+     * Файл в формате gzip распознаётся по сигнатуре и распаковывается в отдельном потоке выполнения -
+     * такой файл читается только последовательно и в память не отображается.
+     * @param fileName Имя входного файла.
+     * @param memoryMapped true - файл отображается в память, false - обычное чтение.
+     * @throws FileNotFoundException Если файл с заданным именем не найден.
+     */
+    public FileHandler(String fileName, boolean memoryMapped) throws FileNotFoundException {
+        this(fileName, memoryMapped, LineScanner.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Обработчик входного файла с заданным размером буфера чтения - когда файлов много и память под буферы
+     * ограничена (см. --fan-in).
+     * Стандартный ввод (имя "-") и именованные каналы читаются последовательно, как поток (см. StreamChannel).
      * @param fileName Имя входного файла.
+     * @param memoryMapped true - файл отображается в память, false - обычное чтение.
+     * @param bufferSize Начальный размер буфера при обычном чтении.
      * @throws FileNotFoundException Если файл с заданным именем не найден.
      */
-    public FileHandler(String fileName) throws FileNotFoundException {
+    public FileHandler(String fileName, boolean memoryMapped, int bufferSize) throws FileNotFoundException {
+        this.fileName = fileName;
+        if (StreamChannel.isStream(fileName)) {
+            stream = new StreamChannel(fileName);
+            metrics = new InputMetrics(fileName, -1);
+            scanner = new LineScanner(stream, Charset.defaultCharset(), bufferSize);
+        } else {
+            FileChannel channel = new FileInputStream(fileName).getChannel();
+            metrics = new InputMetrics(fileName, sizeOf(channel));
+            if (Decompressor.isCompressed(channel)) {
+                compressedChannel = channel;
+                scanner = new LineScanner(Decompressor.start(channel, fileName), Charset.defaultCharset(),
+                        bufferSize);
+            } else {
+                fileChannel = channel;
+                scanner = new LineScanner(fileChannel, memoryMapped, bufferSize);
+            }
+        }
+        this.lineNumber = 0;
+    }
+
+    /**
+     * Обработчик входных данных создаётся по произвольному каналу чтения - например, по промежуточному
+     * потоку параллельного слияния.
+     * @param fileName Имя входных данных для сообщений пользователю.
+     * @param channel Канал чтения.
+     * @param charset Кодировка строк.
+     */
+    public FileHandler(String fileName, ReadableByteChannel channel, Charset charset) {
+        this(fileName, channel, charset, LineScanner.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Обработчик входных данных по произвольному каналу чтения с заданным размером буфера чтения.
+     * @param fileName Имя входных данных для сообщений пользователю.
+     * @param channel Канал чтения.
+     * @param charset Кодировка строк.
+     * @param bufferSize Начальный размер буфера.
+     */
+    public FileHandler(String fileName, ReadableByteChannel channel, Charset charset, int bufferSize) {
+        this.fileName = fileName;
+        metrics = new InputMetrics(fileName, -1);
+        scanner = new LineScanner(channel, charset, bufferSize);
+        this.lineNumber = 0;
+    }
+
+    /**
+     * Обработчик фрагмента входного файла [start, end) - для независимой обработки частей одного файла.
+     * Номера строк в сообщениях отсчитываются от начала фрагмента.
+     * @param fileName Имя входных данных для сообщений пользователю.
+     * @param channel Канал файла. Не закрывается при закрытии обработчика.
+     * @param start Смещение начала фрагмента.
+     * @param end Смещение конца фрагмента.
+     * @param memoryMapped true - фрагмент отображается в память, false - обычное чтение.
+     * @param bufferSize Начальный размер буфера при обычном чтении.
+     */
+    public FileHandler(String fileName, FileChannel channel, long start, long end, boolean memoryMapped,
+                       int bufferSize) {
         this.fileName = fileName;
-        FileReader fr = new FileReader(fileName);
-        reader = new BufferedReader(fr);
+        this.fileChannel = channel;
+        metrics = new InputMetrics(fileName, end - start);
+        scanner = new LineScanner(channel, start, end, memoryMapped, bufferSize);
         this.lineNumber = 0;
     }
 }
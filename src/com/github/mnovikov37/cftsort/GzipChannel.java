@@ -0,0 +1,162 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Канал записи со сжатием в формате gzip.
+ * Данные делятся на блоки, каждый блок сжимается в пуле потоков в отдельный сжатый блок gzip,
+ * сжатые блоки записываются в выходной канал в исходном порядке. Файл из нескольких сжатых блоков
+ * распаковывается стандартными средствами как единое целое.
+ * Количество блоков в работе ограничено, поэтому объём памяти не зависит от объёма данных.
+ */
+public class GzipChannel implements WritableByteChannel {
+    public final static int BLOCK_SIZE = 1 << 20;   // Размер блока данных, сжимаемого независимо
+
+    private final WritableByteChannel channel;  // Канал записи сжатых данных
+    private final ExecutorService executor;     // Пул потоков сжатия
+    private final int maxPending;               // Максимальное количество блоков в работе
+    private final boolean fsync;                // Сбрасывать данные на диск при закрытии
+    private final Deque<Future<byte[]>> pending; // Сжимаемые блоки в порядке записи
+    private final Queue<byte[]> free;           // Свободные блоки для повторного использования
+    private byte[] block;                       // Заполняемый блок
+    private int count;                          // Количество байт в заполняемом блоке
+    private boolean open;                       // Канал открыт
+
+    /**
+     * Сжимает блок в отдельный сжатый блок gzip и возвращает блок данных для повторного использования.
+     * @param data Блок данных.
+     * @param length Количество байт.
+     * @return Сжатые данные.
+     * @throws IOException При ошибке сжатия.
+     */
+    private byte[] compress(byte[] data, int length) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+            gzip.write(data, 0, length);
+        }
+        free.add(data);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Дожидается сжатия самого раннего блока и записывает его в выходной канал.
+     * @throws IOException При ошибке сжатия или записи.
+     */
+    private void writeFirst() throws IOException {
+        byte[] compressed;
+        try {
+            compressed = pending.removeFirst().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Передаёт заполненный блок на сжатие. Если в работе слишком много блоков,
+     * сначала записывает самый ранний из них.
+     * @throws IOException При ошибке сжатия или записи.
+     */
+    private void submit() throws IOException {
+        if (count > 0) {
+            while (pending.size() >= maxPending) {
+                writeFirst();
+            }
+            byte[] data = block;
+            int length = count;
+            pending.addLast(executor.submit(() -> compress(data, length)));
+            block = free.poll();
+            if (block == null) {
+                block = new byte[BLOCK_SIZE];
+            }
+            count = 0;
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+        int result = src.remaining();
+        while (src.hasRemaining()) {
+            int length = Math.min(src.remaining(), BLOCK_SIZE - count);
+            src.get(block, count, length);
+            count += length;
+            if (count == BLOCK_SIZE) {
+                submit();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    /**
+     * Сжимает и записывает оставшиеся данные, закрывает выходной канал.
+     * При необходимости данные принудительно сбрасываются на диск.
+     * @throws IOException При ошибке сжатия, записи или закрытия.
+     */
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            try {
+                submit();
+                while (!pending.isEmpty()) {
+                    writeFirst();
+                }
+                if (fsync && channel instanceof FileChannel) {
+                    ((FileChannel) channel).force(true);
+                }
+            } finally {
+                for (Future<byte[]> task: pending) {
+                    task.cancel(false);
+                }
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * @param channel Канал записи сжатых данных.
+     * @param executor Пул потоков сжатия.
+     * @param threads Количество потоков сжатия - определяет количество блоков в работе.
+     * @param fsync true - при закрытии данные принудительно сбрасываются на диск.
+     */
+    public GzipChannel(WritableByteChannel channel, ExecutorService executor, int threads, boolean fsync) {
+        this.channel = channel;
+        this.executor = executor;
+        this.maxPending = 2 * threads; // Пока записываются одни блоки, сжимаются следующие.
+        this.fsync = fsync;
+        this.pending = new ArrayDeque<>();
+        this.free = new ConcurrentLinkedQueue<>();
+        this.block = new byte[BLOCK_SIZE];
+        this.count = 0;
+        this.open = true;
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Индекс входного файла - результат предварительного просмотра (см. --prescan).
+ * Хранит смещения и причины пропуска невалидных строк, смещение и номер строки первого нарушения порядка
+ * сортировки и образцы ключей отсортированного начала файла: первый элемент, каждый SAMPLE_INTERVAL-й
+ * и последний перед нарушением порядка (наименьший и наибольший ключи).
+ * Индекс сохраняется рядом с файлом (файл-спутник с расширением .cftidx) и используется повторно, пока
+ * не изменились размер и время изменения файла и параметры разбора элементов.
+ * Слияние пропускает известные невалидные строки без проверки и разбора (см. FileHandler.setIndex()),
+ * разбиение на диапазоны ключей сужает двоичный поиск по образцам (см. Partitioner).
+ */
+public class InputIndex {
+    public final static String EXTENSION = ".cftidx";      // Расширение файла-спутника
+    public final static int SAMPLE_INTERVAL = 1 << 12;      // Образец ключа - каждый N-й валидный элемент
+
+    private final static int MAGIC = 0x43465458;            // Сигнатура файла индекса: "CFTX"
+    private final static int VERSION = 1;                   // Версия формата
+    private final static int INITIAL_CAPACITY = 16;         // Начальная ёмкость списков
+
+    private final long size;                // Размер входного файла
+    private final long modified;            // Время изменения входного файла в миллисекундах
+    private final String signature;         // Параметры разбора элементов, с которыми построен индекс
+    private long records;                   // Количество валидных элементов
+    private long violationOffset = -1;      // Смещение первого нарушения порядка, -1 - файл отсортирован
+    private long violationLine;             // Номер строки первого нарушения порядка
+    private int skippedCount;               // Количество невалидных строк
+    private long[] skippedOffsets;          // Смещения невалидных строк по возрастанию
+    private byte[] skippedReasons;          // Причины пропуска невалидных строк (WarningReason.ordinal())
+    private int sampleCount;                // Количество образцов
+    private long[] sampleOffsets;           // Смещения строк образцов по возрастанию
+    private String[] sampleValues;          // Образцы в том виде, в каком они записываются в выходной файл
+    private Object[] sampleKeys;            // Ключи образцов (см. MergeInput.getCurrentKey()), null - не разобраны
+
+    public long getRecords() { return records; }
+    public long getViolationOffset() { return violationOffset; }
+    public long getViolationLine() { return violationLine; }
+    public int getSkippedCount() { return skippedCount; }
+    public long getSkippedOffset(int i) { return skippedOffsets[i]; }
+    public int getSampleCount() { return sampleCount; }
+    public long getSampleOffset(int i) { return sampleOffsets[i]; }
+    public Object getSampleKey(int i) { return sampleKeys[i]; }
+    public boolean hasKeys() { return sampleKeys != null; }
+
+    /**
+     * @param i Номер невалидной строки в индексе.
+     * @return Причина пропуска строки.
+     */
+    public WarningReason getSkippedReason(int i) {
+        return WarningReason.values()[skippedReasons[i]];
+    }
+
+    /**
+     * Учитывает невалидную строку. Вызывается обработчиком файла при построении индекса.
+     * @param offset Смещение строки.
+     * @param reason Причина пропуска.
+     */
+    public void addSkipped(long offset, WarningReason reason) {
+        if (skippedCount == skippedOffsets.length) {
+            skippedOffsets = Arrays.copyOf(skippedOffsets, 2 * skippedCount);
+            skippedReasons = Arrays.copyOf(skippedReasons, 2 * skippedCount);
+        }
+        skippedOffsets[skippedCount] = offset;
+        skippedReasons[skippedCount] = (byte) reason.ordinal();
+        skippedCount++;
+    }
+
+    /**
+     * Добавляет образец ключа.
+     * @param offset Смещение строки образца.
+     * @param value Образец в виде строки.
+     */
+    private void addSample(long offset, String value) {
+        if (sampleCount == sampleOffsets.length) {
+            sampleOffsets = Arrays.copyOf(sampleOffsets, 2 * sampleCount);
+            sampleValues = Arrays.copyOf(sampleValues, 2 * sampleCount);
+        }
+        sampleOffsets[sampleCount] = offset;
+        sampleValues[sampleCount] = value;
+        sampleCount++;
+    }
+
+    /**
+     * Разбирает ключи образцов - для сравнения с ключами входных потоков.
+     * Если хотя бы один образец не разобран, ключи образцов не используются.
+     * @param parser Разбор элемента из строки, null - если строка не является валидным элементом.
+     */
+    public void resolveKeys(Function<String, Object> parser) {
+        Object[] keys = new Object[sampleCount];
+        boolean valid = true;
+        for (int i = 0; valid && i < sampleCount; i++) {
+            keys[i] = parser.apply(sampleValues[i]);
+            valid = keys[i] != null;
+        }
+        sampleKeys = valid ? keys : null;
+    }
+
+    /**
+     * Заполняет пустой индекс, просматривая входной файл целиком.
+     * @param input Входной поток, читающий файл с начала; его обработчик записывает невалидные строки в индекс
+     *              (см. FileHandler.setRecorder()).
+     * @param sortType Порядок сортировки.
+     * @throws IOException При ошибке записи образца в строку.
+     */
+    public void scan(MergeInput input, SortType sortType) throws IOException {
+        LineScanner scanner = input.getFile().getScanner();
+        long sampleOffset = -1; // Смещение образца, который станет предыдущим элементом после следующего шага
+        long offset = -1;       // Смещение текущего элемента
+        while (input.advance()) {
+            long previousOffset = offset;
+            offset = scanner.getLineOffset();
+            records++;
+            if (sampleOffset >= 0) { // Предыдущий элемент - образец.
+                addSample(sampleOffset, input.previousToString());
+                sampleOffset = -1;
+            }
+            if (violationOffset < 0) {
+                if (records > 1 && input.compareToPrevious() * sortType.getMultiplier() < 0) {
+                    violationOffset = offset;
+                    violationLine = input.getLineNumber();
+                    if (sampleCount == 0 || sampleOffsets[sampleCount - 1] != previousOffset) {
+                        addSample(previousOffset, input.previousToString()); // Последний отсортированный.
+                    }
+                } else if ((records - 1) % SAMPLE_INTERVAL == 0) {
+                    sampleOffset = offset;
+                }
+            }
+        }
+        if (violationOffset < 0 && offset >= 0
+                && (sampleCount == 0 || sampleOffsets[sampleCount - 1] != offset)) {
+            addSample(offset, input.previousToString()); // Последний элемент файла - наибольший ключ.
+        }
+    }
+
+    /**
+     * Сохраняет индекс: во временный файл, который затем переименовывается.
+     * @param path Файл индекса.
+     * @throws IOException При ошибке записи.
+     */
+    public void save(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(size);
+            out.writeLong(modified);
+            out.writeUTF(signature);
+            out.writeLong(records);
+            out.writeLong(violationOffset);
+            out.writeLong(violationLine);
+            out.writeInt(skippedCount);
+            for (int i = 0; i < skippedCount; i++) {
+                out.writeLong(skippedOffsets[i]);
+                out.writeByte(skippedReasons[i]);
+            }
+            out.writeInt(sampleCount);
+            for (int i = 0; i < sampleCount; i++) {
+                byte[] value = sampleValues[i].getBytes(StandardCharsets.UTF_8);
+                out.writeLong(sampleOffsets[i]);
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Загружает сохранённый индекс, если он соответствует входному файлу и параметрам разбора.
+     * @param path Файл индекса.
+     * @param size Размер входного файла.
+     * @param modified Время изменения входного файла в миллисекундах.
+     * @param signature Параметры разбора элементов.
+     * @return Индекс, null, если файла индекса нет, он устарел или имеет неверный формат.
+     */
+    public static InputIndex load(Path path, long size, long modified, String signature) {
+        InputIndex result = null;
+        if (Files.isRegularFile(path)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == size
+                        && in.readLong() == modified && in.readUTF().equals(signature)) {
+                    InputIndex index = new InputIndex(size, modified, signature);
+                    index.records = in.readLong();
+                    index.violationOffset = in.readLong();
+                    index.violationLine = in.readLong();
+                    int skipped = in.readInt();
+                    for (int i = 0; i < skipped; i++) {
+                        index.addSkipped(in.readLong(), WarningReason.values()[in.readByte()]);
+                    }
+                    int samples = in.readInt();
+                    for (int i = 0; i < samples; i++) {
+                        long offset = in.readLong();
+                        index.addSample(offset, new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8));
+                    }
+                    result = index;
+                }
+            } catch (IOException | RuntimeException e) { // Испорченный индекс строится заново.
+                result = null;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param size Размер входного файла.
+     * @param modified Время изменения входного файла в миллисекундах.
+     * @param signature Параметры разбора элементов: тип данных, порядок, правило сравнения, ключевые поля.
+     */
+    public InputIndex(long size, long modified, String signature) {
+        this.size = size;
+        this.modified = modified;
+        this.signature = signature;
+        this.skippedOffsets = new long[INITIAL_CAPACITY];
+        this.skippedReasons = new byte[INITIAL_CAPACITY];
+        this.sampleOffsets = new long[INITIAL_CAPACITY];
+        this.sampleValues = new String[INITIAL_CAPACITY];
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Счётчики входного файла.
+ * Обработчик файла считает элементы в обычных полях своего потока выполнения и лишь время от времени
+ * публикует их сюда (см. FileHandler.publishMetrics()), поэтому счётчики не замедляют чтение
+ * и не вызывают конкуренции между потоками. Значения, прочитанные во время сортировки, могут немного отставать.
+ */
+public class InputMetrics {
+    private final String name;              // Имя входного файла
+    private final long size;                // Объём входных данных в байтах, -1 - неизвестен
+    private volatile long records;          // Количество считанных валидных элементов
+    private volatile long skippedEmpty;     // Количество пропущенных пустых строк
+    private volatile long skippedSpace;     // Количество пропущенных строк с пробелами
+    private volatile long skippedFormat;    // Количество пропущенных строк неверного формата
+    private volatile long bytes;            // Количество обработанных байт входных данных
+    private volatile long stallNanos;       // Время ожидания данных в наносекундах
+    private volatile boolean excluded;      // Файл исключён из сортировки из-за нарушения порядка
+
+    public String getName() { return name; }
+    public long getSize() { return size; }
+    public long getRecords() { return records; }
+    public long getSkippedEmpty() { return skippedEmpty; }
+    public long getSkippedSpace() { return skippedSpace; }
+    public long getSkippedFormat() { return skippedFormat; }
+    public long getBytes() { return bytes; }
+    public long getStallNanos() { return stallNanos; }
+    public boolean isExcluded() { return excluded; }
+
+    public void setExcluded() { excluded = true; }
+
+    /**
+     * Публикует текущие значения счётчиков.
+     * Вызывается только потоком, читающим файл.
+     */
+    void update(long records, long skippedEmpty, long skippedSpace, long skippedFormat, long bytes, long stallNanos) {
+        this.records = records;
+        this.skippedEmpty = skippedEmpty;
+        this.skippedSpace = skippedSpace;
+        this.skippedFormat = skippedFormat;
+        this.bytes = bytes;
+        this.stallNanos = stallNanos;
+    }
+
+    /**
+     * @param name Имя входного файла.
+     * @param size Объём входных данных в байтах, -1 - если неизвестен.
+     */
+    public InputMetrics(String name, long size) {
+        this.name = name;
+        this.size = size;
+    }
+}
@@ -0,0 +1,81 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Входной поток слияния из итератора объектов. Элементы сравниваются заданным компаратором,
+ * в выходные данные записываются строковым представлением.
+ * @param <T> Тип элементов.
+ */
+public class IteratorInput<T> extends MergeInput {
+    private final String name;                      // Имя источника для сообщений пользователю
+    private final Iterator<? extends T> source;     // Источник элементов
+    private final Comparator<? super T> comparator; // Сравнение элементов
+    private T current;                              // Текущий элемент
+    private T previous;                             // Предыдущий элемент
+    private long index;                             // Номер текущего элемента, начиная с 1
+
+    public T getPrevious() { return previous; }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public long getLineNumber() { return index; }
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        hasCurrent = source.hasNext();
+        current = hasCurrent ? source.next() : null;
+        index++;
+        return hasCurrent;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareTo(MergeInput other) {
+        return comparator.compare(current, ((IteratorInput<T>) other).current);
+    }
+
+    @Override
+    public int compareToPrevious() {
+        return comparator.compare(current, previous);
+    }
+
+    @Override
+    public Object getCurrentKey() {
+        return current;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareToKey(Object key) {
+        return comparator.compare(current, (T) key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public int compareToPreviousOf(MergeInput other) {
+        return comparator.compare(current, ((IteratorInput<T>) other).previous);
+    }
+
+    @Override
+    public void writePreviousElement(OutputBuffer output) throws IOException {
+        output.writeString(String.valueOf(previous));
+    }
+
+    /**
+     * @param name Имя источника для сообщений пользователю.
+     * @param source Источник элементов, отсортированных в порядке компаратора.
+     * @param comparator Сравнение элементов.
+     */
+    public IteratorInput(String name, Iterator<? extends T> source, Comparator<? super T> comparator) {
+        super(null);
+        this.name = name;
+        this.source = source;
+        this.comparator = comparator;
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Ключевые поля записей: записи - строки, разделённые на поля символом-разделителем,
+ * сортируются по одному или нескольким полям, каждое - со своим типом данных.
+ * Запись целиком переносится в выходной файл. Кавычки в полях не обрабатываются.
+ * Дополнительно может быть задано числовое поле значения - оно суммируется по группам равных ключей (см. Aggregator).
+ */
+public class KeyFields {
+    public final static char DEFAULT_DELIMITER = '\t';  // Разделитель полей по умолчанию - табуляция
+
+    private final char delimiter;       // Разделитель полей
+    private final int[] columns;        // Номера ключевых полей, начиная с 0, в порядке сравнения
+    private final DataType[] types;     // Типы данных ключевых полей
+    private final Collation collation;  // Правило сравнения строковых полей
+    private final int valueColumn;      // Номер поля значения, начиная с 0, -1 - поля значения нет
+
+    public char getDelimiter() { return delimiter; }
+    public int[] getColumns() { return columns; }
+    public DataType[] getTypes() { return types; }
+    public Collation getCollation() { return collation; }
+    public int getValueColumn() { return valueColumn; }
+
+    /**
+     * @param delimiter Разделитель полей.
+     * @param columns Номера ключевых полей, начиная с 0, в порядке сравнения.
+     * @param types Типы данных ключевых полей.
+     * @param collation Правило сравнения строковых полей.
+     * @param valueColumn Номер поля значения, начиная с 0, -1 - поля значения нет.
+     */
+    public KeyFields(char delimiter, int[] columns, DataType[] types, Collation collation, int valueColumn) {
+        this.delimiter = delimiter;
+        this.columns = columns;
+        this.types = types;
+        this.collation = collation;
+        this.valueColumn = valueColumn;
+    }
+}
@@ -0,0 +1,441 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Построчный считыватель входных данных на уровне байтов.
+ * Данные читаются из канала крупными блоками в буфер вне кучи, строки выделяются без декодирования в символы.
+ * За один проход по байтам строки находится её конец и определяется наличие в ней пробелов.
+ * Концом строки считается '\n', '\r' либо "\r\n" - так же, как в BufferedReader.readLine().
+ * Файл может читаться через отображение в память скользящими окнами - тогда данные вообще не копируются.
+ * Кроме текущей строки считыватель сохраняет в буфере одну отложенную строку (обычно - предыдущую валидную),
+ * чтобы её можно было сравнивать и записывать прямо из буфера.
+ */
+public class LineScanner {
+    public final static int DEFAULT_BUFFER_SIZE = 1 << 16;  // Размер буфера по умолчанию
+    private final static int MAPPED_WINDOW_SIZE = 1 << 24;  // Размер окна отображения файла в память
+
+    private final ReadableByteChannel channel;  // Канал чтения входных данных
+    private final FileChannel mappedChannel;    // Канал файла, отображаемого в память, null - обычное чтение
+    private final long mappedEnd;               // Смещение конца отображаемой части файла
+    private long bufferOffset;                  // Смещение начала буфера от начала входных данных
+    private long startOffset;                   // Смещение начала входных данных (для фрагмента файла)
+    private final Charset charset;              // Кодировка строк
+    private ByteBuffer buffer;                  // Буфер данных: байты [0, limit) считаны из канала
+    private int position;                       // Позиция начала ещё не разобранных данных в буфере
+    private int lineStart;                      // Позиция начала текущей строки в буфере
+    private int lineEnd;                        // Позиция конца текущей строки в буфере (не включая признак конца)
+    private int keptStart;                      // Позиция начала отложенной строки в буфере
+    private int keptEnd;                        // Позиция конца отложенной строки в буфере
+    private boolean lineHasSpace;               // Признак наличия пробела в текущей строке
+    private boolean skipLineFeed;               // Предыдущая строка закончилась '\r' - следующий '\n' пропускается
+    private boolean endOfInput;                 // Канал исчерпан
+    private byte[] chars;                       // Многократно используемый массив для преобразования строки
+    private long number;                        // Результат разбора строки как числа
+    private long readNanos;                     // Время ожидания данных из канала в наносекундах
+
+    /**
+     * Сдвигает позиции в буфере после того, как начало буфера переместилось вперёд по входным данным.
+     * @param shift Количество вытесненных байт.
+     */
+    private void shiftPositions(int shift) {
+        bufferOffset += shift;
+        position -= shift;
+        lineStart -= shift;
+        keptStart -= shift;
+        keptEnd -= shift;
+    }
+
+    /**
+     * Дочитывает данные из канала в конец буфера.
+     * Уже разобранные данные (до начала отложенной и текущей строк) вытесняются из буфера,
+     * если эти строки не помещаются в буфер - буфер увеличивается.
+     * @return true, если данные добавлены, false, если канал исчерпан.
+     * @throws IOException При ошибке чтения.
+     */
+    private boolean fill() throws IOException {
+        long start = System.nanoTime();
+        boolean result = mappedChannel != null ? mapNextWindow() : readNextBlock();
+        readNanos += System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Дочитывает данные из канала в конец буфера обычным чтением.
+     * @return true, если данные добавлены, false, если канал исчерпан.
+     * @throws IOException При ошибке чтения.
+     */
+    private boolean readNextBlock() throws IOException {
+        int shift = Math.min(keptStart, lineStart);
+        if (shift > 0) { // Вытесняем разобранные данные.
+            buffer.position(shift);
+            buffer.compact();
+            buffer.flip();
+            shiftPositions(shift);
+        } else if (buffer.limit() == buffer.capacity()) { // Строки заняли весь буфер - увеличиваем его.
+            ByteBuffer larger = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            buffer.position(0);
+            larger.put(buffer);
+            larger.flip();
+            buffer = larger;
+        }
+
+        int count = 0;
+        if (!endOfInput) {
+            int limit = buffer.limit();
+            buffer.position(limit);
+            buffer.limit(buffer.capacity());
+            count = channel.read(buffer);
+            buffer.limit(count > 0 ? limit + count : limit);
+            buffer.position(0);
+            if (count < 0) {
+                endOfInput = true;
+            }
+        }
+        return count > 0;
+    }
+
+    /**
+     * Отображает в память следующее окно файла.
+     * Окно начинается с отложенной либо текущей строки, поэтому они остаются доступными в новом буфере.
+     * @return true, если данные добавлены, false, если файл исчерпан.
+     * @throws IOException При ошибке отображения файла.
+     */
+    private boolean mapNextWindow() throws IOException {
+        boolean result = false;
+        long end = bufferOffset + buffer.limit();
+        long mappedLimit = Math.min(mappedEnd, mappedChannel.size());
+        if (end < mappedLimit) {
+            int shift = Math.min(keptStart, lineStart);
+            long offset = bufferOffset + shift;
+            int retained = buffer.limit() - shift;
+            // Если сохраняемые строки занимают большую часть окна - окно увеличивается.
+            long size = Math.min(mappedLimit - offset, Math.max(MAPPED_WINDOW_SIZE, 2L * retained));
+            buffer = mappedChannel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size, Integer.MAX_VALUE));
+            shiftPositions(shift);
+            result = true;
+        } else {
+            endOfInput = true;
+        }
+        return result;
+    }
+
+    /**
+     * Переходит к следующей строке.
+     * @return true, если строка найдена, false, если входные данные закончились.
+     * @throws IOException При ошибке чтения.
+     */
+    public boolean nextLine() throws IOException {
+        lineStart = position;
+        if (skipLineFeed) {
+            if (position < buffer.limit() || fill()) {
+                if (buffer.get(position) == '\n') {
+                    position++;
+                    lineStart = position;
+                }
+            }
+            skipLineFeed = false;
+        }
+
+        boolean found = false;
+        boolean hasSpace = false;
+        int i = position;
+        while (!found) {
+            int limit = buffer.limit();
+            while (i < limit) {
+                byte b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    skipLineFeed = b == '\r';
+                    found = true;
+                    break;
+                } else if (b == ' ') {
+                    hasSpace = true;
+                }
+                i++;
+            }
+            if (!found) {
+                int parsed = i - lineStart;
+                if (!fill()) { // Входные данные закончились.
+                    i = lineStart + parsed;
+                    break;
+                }
+                i = lineStart + parsed; // После вытеснения данных строка начинается с нулевой позиции.
+            }
+        }
+
+        lineEnd = i;
+        lineHasSpace = hasSpace;
+        position = found ? i + 1 : i;
+        return found || lineEnd > lineStart;
+    }
+
+    /**
+     * Откладывает текущую строку: она остаётся доступной в буфере, пока не будет отложена другая строка.
+     */
+    public void keepLine() {
+        keptStart = lineStart;
+        keptEnd = lineEnd;
+    }
+
+    /**
+     * Сравнивает фрагменты байтов в кодировке UTF-8 в том же порядке, в каком String.compareTo()
+     * сравнивает соответствующие им строки (по кодовым единицам UTF-16).
+     * Порядок байтов UTF-8 совпадает с порядком кодовых точек, который отличается от порядка UTF-16 только
+     * для символов U+E000..U+FFFF (первый байт 0xEE, 0xEF) и символов вне BMP (первый байт 0xF0..0xF4):
+     * в UTF-16 вторые представлены суррогатными парами и идут раньше первых.
+     * @param utf16Order true - порядок String.compareTo(), false - порядок байтов (кодовых точек).
+     * @return Отрицательное число, если первый фрагмент меньше, положительное - если больше, ноль - если равны.
+     */
+    private static int compareUtf8(ByteBuffer a, int aStart, int aEnd, ByteBuffer b, int bStart, int bEnd,
+                                   boolean utf16Order) {
+        int result = 0;
+        int length = Math.min(aEnd - aStart, bEnd - bStart);
+        for (int i = 0; result == 0 && i < length; i++) {
+            int x = a.get(aStart + i) & 0xFF;
+            int y = b.get(bStart + i) & 0xFF;
+            if (x != y) {
+                if (utf16Order && x >= 0xEE && y >= 0xEE) { // Символы U+E000..U+FFFF идут после символов вне BMP.
+                    x += x < 0xF0 ? 0x10 : 0;
+                    y += y < 0xF0 ? 0x10 : 0;
+                }
+                result = x - y;
+            }
+        }
+        if (result == 0) {
+            result = (aEnd - aStart) - (bEnd - bStart);
+        }
+        return result;
+    }
+
+    /**
+     * Сравнивает текущую строку с текущей строкой другого считывателя прямо в буферах, без создания строк.
+     * @param other Другой считыватель.
+     * @param utf16Order true - порядок String.compareTo() для строк в кодировке UTF-8, false - порядок байтов.
+     * @return Результат сравнения.
+     */
+    public int compareLine(LineScanner other, boolean utf16Order) {
+        return compareUtf8(buffer, lineStart, lineEnd, other.buffer, other.lineStart, other.lineEnd, utf16Order);
+    }
+
+    /**
+     * Сравнивает текущую строку с отложенной прямо в буфере, без создания строк.
+     * @param utf16Order true - порядок String.compareTo() для строк в кодировке UTF-8, false - порядок байтов.
+     * @return Результат сравнения.
+     */
+    public int compareLineToKept(boolean utf16Order) {
+        return compareUtf8(buffer, lineStart, lineEnd, buffer, keptStart, keptEnd, utf16Order);
+    }
+
+    /**
+     * Сравнивает текущую строку с отложенной строкой другого считывателя прямо в буферах, без создания строк.
+     * @param other Другой считыватель, возможно, этот же.
+     * @param utf16Order true - порядок String.compareTo() для строк в кодировке UTF-8, false - порядок байтов.
+     * @return Результат сравнения.
+     */
+    public int compareLineToKept(LineScanner other, boolean utf16Order) {
+        return compareUtf8(buffer, lineStart, lineEnd, other.buffer, other.keptStart, other.keptEnd, utf16Order);
+    }
+
+    /**
+     * Записывает отложенную строку прямо из буфера.
+     * @param output Буфер записи в выходной файл.
+     * @throws IOException При ошибке записи.
+     */
+    public void writeKept(OutputBuffer output) throws IOException {
+        output.writeBytes(buffer, keptStart, keptEnd - keptStart);
+    }
+
+    /**
+     * @return Длина текущей строки в байтах.
+     */
+    public int length() { return lineEnd - lineStart; }
+
+    /**
+     * @return true, если текущая строка содержит пробел.
+     */
+    public boolean containsSpace() { return lineHasSpace; }
+
+    /**
+     * Получение байта текущей строки.
+     * @param index Номер байта от начала строки.
+     * @return Байт строки.
+     */
+    public byte byteAt(int index) { return buffer.get(lineStart + index); }
+
+    /**
+     * Разбирает текущую строку как целое число - так же, как Long.parseLong(), но без создания строки.
+     * Строки с не-ASCII символами разбираются через Long.parseLong(), чтобы сохранить его поведение
+     * для цифр других алфавитов.
+     * Разобранное число доступно через getNumber().
+     * @return true, если строка является целым числом, false, если нет.
+     */
+    public boolean parseLong() {
+        int i = lineStart;
+        int end = lineEnd;
+        boolean negative = false;
+        long limit = -Long.MAX_VALUE;
+        if (i < end) {
+            byte first = buffer.get(i);
+            if (first == '-') {
+                negative = true;
+                limit = Long.MIN_VALUE;
+                i++;
+            } else if (first == '+') {
+                i++;
+            }
+        }
+        boolean valid = i < end;
+        boolean ascii = true;
+        // Число накапливается в отрицательном виде, чтобы корректно обработать Long.MIN_VALUE.
+        long multLimit = limit / 10;
+        long value = 0;
+        for (; valid && ascii && i < end; i++) {
+            byte b = buffer.get(i);
+            int digit = b - '0';
+            if (b < 0) {
+                ascii = false;
+            } else if (digit < 0 || digit > 9 || value < multLimit) {
+                valid = false;
+            } else {
+                value *= 10;
+                if (value < limit + digit) {
+                    valid = false;
+                } else {
+                    value -= digit;
+                }
+            }
+        }
+
+        if (!ascii) { // Не-ASCII символ - разбор через строку.
+            try {
+                number = Long.parseLong(getString());
+            } catch (NumberFormatException e) {
+                valid = false;
+            }
+        } else if (valid) {
+            number = negative ? value : -value;
+        }
+        return valid;
+    }
+
+    /**
+     * @return Число, полученное последним вызовом parseLong().
+     */
+    public long getNumber() { return number; }
+
+    /**
+     * Преобразует текущую строку в объект String.
+     * @return Текущая строка.
+     */
+    public String getString() {
+        int length = length();
+        if (chars == null || chars.length < length) {
+            chars = new byte[Math.max(length, 64)];
+        }
+        buffer.get(lineStart, chars, 0, length);
+        return new String(chars, 0, length, charset);
+    }
+
+    /**
+     * Начинает чтение файла с заданного смещения - данные до него не читаются, смещения строк по-прежнему
+     * отсчитываются от начала файла. Вызывается до чтения первой строки считывателем всего файла.
+     * @param offset Смещение начала строки в байтах.
+     * @throws IOException При ошибке позиционирования канала.
+     */
+    public void seek(long offset) throws IOException {
+        if (mappedChannel == null) {
+            ((FileChannel) channel).position(offset);
+        }
+        bufferOffset = offset;
+        startOffset = offset;
+    }
+
+    /**
+     * Закрывает канал чтения.
+     * @throws IOException При ошибке закрытия.
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Смещение начала текущей строки от начала входных данных (для фрагмента файла - от начала файла).
+     * @return Смещение в байтах.
+     */
+    public long getLineOffset() { return bufferOffset + lineStart; }
+
+    /**
+     * @return Количество разобранных байт входных данных.
+     */
+    public long getConsumed() { return bufferOffset + position - startOffset; }
+
+    /**
+     * @return Время ожидания данных из канала (чтения либо отображения в память) в наносекундах.
+     */
+    public long getReadNanos() { return readNanos; }
+
+    private LineScanner(ReadableByteChannel channel, FileChannel mappedChannel, long start, long end,
+                        Charset charset, int bufferSize) {
+        this.channel = channel;
+        this.mappedChannel = mappedChannel;
+        this.mappedEnd = end;
+        this.bufferOffset = start;
+        this.startOffset = start;
+        this.charset = charset;
+        this.buffer = mappedChannel != null ? ByteBuffer.allocate(0) : ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.limit(0);
+    }
+
+    /**
+     * @param channel Канал чтения входных данных.
+     * @param charset Кодировка строк.
+     */
+    public LineScanner(ReadableByteChannel channel, Charset charset) {
+        this(channel, charset, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel Канал чтения входных данных.
+     * @param charset Кодировка строк.
+     * @param bufferSize Начальный размер буфера.
+     */
+    public LineScanner(ReadableByteChannel channel, Charset charset, int bufferSize) {
+        this(channel, null, 0, 0, charset, bufferSize);
+    }
+
+    /**
+     * @param channel Канал чтения файла.
+     * @param memoryMapped true - файл отображается в память скользящими окнами, false - обычное чтение.
+     */
+    public LineScanner(FileChannel channel, boolean memoryMapped) {
+        this(channel, memoryMapped, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel Канал чтения файла.
+     * @param memoryMapped true - файл отображается в память скользящими окнами, false - обычное чтение.
+     * @param bufferSize Начальный размер буфера при обычном чтении.
+     */
+    public LineScanner(FileChannel channel, boolean memoryMapped, int bufferSize) {
+        this(channel, memoryMapped ? channel : null, 0, Long.MAX_VALUE, Charset.defaultCharset(), bufferSize);
+    }
+
+    /**
+     * Считыватель фрагмента файла [start, end). Канал файла может одновременно использоваться другими
+     * считывателями - данные читаются позиционным чтением либо отображением в память.
+     * Закрытие считывателя не закрывает канал файла. Смещения строк отсчитываются от начала файла.
+     * @param channel Канал чтения файла.
+     * @param start Смещение начала фрагмента.
+     * @param end Смещение конца фрагмента.
+     * @param memoryMapped true - фрагмент отображается в память скользящими окнами, false - обычное чтение.
+     * @param bufferSize Начальный размер буфера при обычном чтении.
+     */
+    public LineScanner(FileChannel channel, long start, long end, boolean memoryMapped, int bufferSize) {
+        this(new RangeChannel(channel, start, end), memoryMapped ? channel : null, start, end,
+                Charset.defaultCharset(), bufferSize);
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Входной поток слияния из итератора примитивных чисел long - без упаковки элементов в объекты.
+ */
+public class LongIteratorInput extends MergeInput {
+    private final String name;                          // Имя источника для сообщений пользователю
+    private final PrimitiveIterator.OfLong source;      // Источник элементов
+    private long current;                               // Текущий элемент
+    private long previous;                              // Предыдущий элемент
+    private long index;                                 // Номер текущего элемента, начиная с 1
+
+    public long getPrevious() { return previous; }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public long getLineNumber() { return index; }
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        hasCurrent = source.hasNext();
+        if (hasCurrent) {
+            current = source.nextLong();
+        }
+        index++;
+        return hasCurrent;
+    }
+
+    @Override
+    public int compareTo(MergeInput other) {
+        return Long.compare(current, ((LongIteratorInput) other).current);
+    }
+
+    @Override
+    public int compareToPrevious() {
+        return Long.compare(current, previous);
+    }
+
+    @Override
+    public Object getCurrentKey() {
+        return current;
+    }
+
+    @Override
+    public int compareToKey(Object key) {
+        return Long.compare(current, (Long) key);
+    }
+
+    @Override
+    public int compareToPreviousOf(MergeInput other) {
+        return Long.compare(current, ((LongIteratorInput) other).previous);
+    }
+
+    @Override
+    public void writePreviousElement(OutputBuffer output) throws IOException {
+        output.writeLong(previous);
+    }
+
+    /**
+     * @param name Имя источника для сообщений пользователю.
+     * @param source Источник элементов, отсортированных в заданном порядке.
+     */
+    public LongIteratorInput(String name, PrimitiveIterator.OfLong source) {
+        super(null);
+        this.name = name;
+        this.source = source;
+    }
+}
@@ -0,0 +1,134 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Слияние отсортированных источников целых чисел для использования программы как библиотеки.
+ * То же, что MergeIterator, но элементы - примитивные числа long: ни слияние, ни выдача результата
+ * не упаковывают числа в объекты.
+ */
+public class LongMergeIterator implements PrimitiveIterator.OfLong, AutoCloseable {
+    private final static int UNKNOWN = -2;  // Следующий элемент ещё не вычислен
+
+    private final MergeInput[] inputs;      // Входные потоки слияния
+    private final Merger merger;            // Слияние, null - если источников нет
+    private final List<FileHandler> files;  // Обработчики входных каналов, закрываемые по завершении
+    private int nextIndex;                  // Индекс потока со следующим элементом, -1 - источники исчерпаны
+
+    @Override
+    public boolean hasNext() {
+        if (nextIndex == UNKNOWN) {
+            nextIndex = merger != null ? merger.next() : -1;
+        }
+        return nextIndex >= 0;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        MergeInput input = inputs[nextIndex];
+        long result = input instanceof NumberInput ? ((NumberInput) input).getPrevious()
+                : ((LongIteratorInput) input).getPrevious();
+        nextIndex = UNKNOWN;
+        return result;
+    }
+
+    /**
+     * Записывает оставшиеся элементы в канал - по одному числу в строке. Канал не закрывается.
+     * @param channel Канал записи.
+     * @return Количество записанных элементов.
+     * @throws IOException При ошибке записи.
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        OutputBuffer output = new OutputBuffer(channel, OutputBuffer.DEFAULT_BUFFER_SIZE, false);
+        long result = 0;
+        while (hasNext()) {
+            inputs[nextIndex].writePrevious(output);
+            nextIndex = UNKNOWN;
+            result++;
+        }
+        output.flush();
+        return result;
+    }
+
+    /**
+     * Закрывает входные каналы. Итераторы-источники не закрываются.
+     */
+    @Override
+    public void close() {
+        for (FileHandler file: files) {
+            file.close();
+        }
+    }
+
+    /**
+     * Слияние итераторов чисел - например, LongStream.iterator().
+     * @param sources Источники, каждый отсортирован в заданном порядке.
+     * @param sortType Порядок сортировки.
+     * @return Итератор результата слияния.
+     */
+    public static LongMergeIterator of(List<? extends PrimitiveIterator.OfLong> sources, SortType sortType) {
+        MergeInput[] inputs = new MergeInput[sources.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new LongIteratorInput("source " + (i + 1), sources.get(i));
+        }
+        return new LongMergeIterator(inputs, sortType, new ArrayList<>());
+    }
+
+    /**
+     * Слияние каналов, содержащих целые числа - по одному числу в строке.
+     * Строки проверяются так же, как строки входных файлов программы: невалидные строки
+     * и числа вне диапазона типа данных пропускаются с предупреждением.
+     * @param sources Каналы чтения, каждый отсортирован в заданном порядке.
+     * @param charset Кодировка данных.
+     * @param dataType Тип данных: целые числа 32 либо 64 бита.
+     * @param sortType Порядок сортировки.
+     * @return Итератор результата слияния. Закрывает каналы при закрытии.
+     */
+    public static LongMergeIterator ofChannels(List<? extends ReadableByteChannel> sources, Charset charset,
+                                               DataType dataType, SortType sortType) {
+        MergeInput[] inputs = new MergeInput[sources.size()];
+        List<FileHandler> files = new ArrayList<>();
+        for (int i = 0; i < inputs.length; i++) {
+            FileHandler file = new FileHandler("source " + (i + 1), sources.get(i), charset);
+            files.add(file);
+            inputs[i] = new NumberInput(file, dataType);
+        }
+        return new LongMergeIterator(inputs, sortType, files);
+    }
+
+    /**
+     * Слияние потоков ввода, содержащих целые числа. См. ofChannels().
+     * @param sources Потоки ввода, каждый отсортирован в заданном порядке.
+     * @param charset Кодировка данных.
+     * @param dataType Тип данных: целые числа 32 либо 64 бита.
+     * @param sortType Порядок сортировки.
+     * @return Итератор результата слияния. Закрывает потоки ввода при закрытии.
+     */
+    public static LongMergeIterator ofStreams(List<? extends InputStream> sources, Charset charset,
+                                              DataType dataType, SortType sortType) {
+        List<ReadableByteChannel> channels = new ArrayList<>();
+        for (InputStream source: sources) {
+            channels.add(Channels.newChannel(source));
+        }
+        return ofChannels(channels, charset, dataType, sortType);
+    }
+
+    private LongMergeIterator(MergeInput[] inputs, SortType sortType, List<FileHandler> files) {
+        this.inputs = inputs;
+        this.merger = inputs.length > 0 ? new Merger(inputs, sortType, null) : null;
+        this.files = files;
+        this.nextIndex = UNKNOWN;
+    }
+}
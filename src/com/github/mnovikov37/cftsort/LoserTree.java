@@ -0,0 +1,105 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Дерево проигравших (турнирное дерево) для k-путевого слияния.
+ * Хранит индексы входных потоков и позволяет получить индекс потока со следующим элементом
+ * за O(1), а после замены элемента в этом потоке - восстановить дерево за O(log K) сравнений.
+ * Сами элементы дерево не хранит: сравнение выполняется внешним компаратором по индексам.
+ */
+public class LoserTree {
+    /**
+     * Сравнение элементов двух входных потоков по их индексам.
+     */
+    public interface IndexComparator {
+        /**
+         * @param i Индекс первого потока.
+         * @param j Индекс второго потока.
+         * @return Отрицательное число, если элемент потока i должен идти в выходные данные раньше элемента потока j,
+         * положительное число - если позже, ноль - если элементы равны.
+         */
+        int compare(int i, int j);
+    }
+
+    private final int size;                     // Количество входных потоков (листьев дерева)
+    private final int[] tree;                   // tree[0] - победитель, tree[1..size-1] - проигравшие во внутренних узлах
+    private final IndexComparator comparator;   // Сравнение элементов потоков
+
+    /**
+     * Определяет, побеждает ли поток i поток j.
+     * При равенстве элементов побеждает поток с большим индексом - так же, как при линейном поиске,
+     * который выбирал последний из равных элементов.
+     */
+    private boolean beats(int i, int j) {
+        int result = comparator.compare(i, j);
+        return result < 0 || (result == 0 && i > j);
+    }
+
+    /**
+     * Победитель турнира - индекс потока, элемент которого будет следующим в выходных данных.
+     * @return Индекс потока.
+     */
+    public int winner() { return tree[0]; }
+
+    /**
+     * Второй в турнире - лучший из проигравших победителю на пути от его листа к корню:
+     * любой другой поток проиграл кому-то из них. Дерево не изменяется.
+     * Пока элемент победителя побеждает элемент второго, а остальные потоки не меняются, победитель не меняется.
+     * @return Индекс потока, -1, если поток один.
+     */
+    public int runnerUp() {
+        int result = -1;
+        for (int node = (tree[0] + size) >> 1; node > 0; node >>= 1) {
+            if (result < 0 || beats(tree[node], result)) {
+                result = tree[node];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Восстанавливает дерево после изменения элемента в потоке-победителе.
+     * Проходит от листа потока к корню, сравнивая элемент только с проигравшими на этом пути.
+     * @param index Индекс потока, элемент которого изменился. Должен быть текущим победителем.
+     */
+    public void replay(int index) {
+        int winner = index;
+        for (int node = (index + size) >> 1; node > 0; node >>= 1) {
+            if (beats(tree[node], winner)) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /**
+     * Строит дерево по текущим элементам всех потоков.
+     * Лист потока i расположен в позиции size + i полного двоичного дерева,
+     * внутренние узлы - в позициях 1..size-1.
+     * @param size Количество входных потоков. Должно быть больше нуля.
+     * @param comparator Сравнение элементов потоков.
+     */
+    public LoserTree(int size, IndexComparator comparator) {
+        this.size = size;
+        this.comparator = comparator;
+        this.tree = new int[size];
+
+        int[] winners = new int[2 * size]; // Победители поддеревьев - нужны только при построении.
+        for (int i = 0; i < size; i++) {
+            winners[size + i] = i;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            int left = winners[2 * node];
+            int right = winners[2 * node + 1];
+            if (beats(left, right)) {
+                winners[node] = left;
+                tree[node] = right;
+            } else {
+                winners[node] = right;
+                tree[node] = left;
+            }
+        }
+        tree[0] = winners[1];
+    }
+}
@@ -1,5 +1,8 @@
 package com.github.mnovikov37.cftsort;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
 import java.util.List;
 
 public class Main {
@@ -11,10 +14,35 @@ public class Main {
      */
     static void printMessages(ErrorLevel errorLevel, List<String> messages) {
         for (String message: messages) {
-            System.out.println(errorLevel.getPrefix() + ": " + message);
+            Diagnostics.message(errorLevel, message);
         }
         if (errorLevel == ErrorLevel.CRITICAL) {
-            System.out.println("Critical errors found. Program will be closed.");
+            Diagnostics.message(null, "Critical errors found. Program will be closed.");
+        }
+    }
+
+    /**
+     * Запускает вывод диагностических сообщений - в файл, заданный параметром --log, иначе в стандартный вывод,
+     * а если в стандартный вывод записывается результат - в стандартный поток ошибок.
+     * @param paramHandler Обработчик командной строки.
+     */
+    static void startDiagnostics(ParamHandler paramHandler) {
+        PrintStream console = StreamChannel.STANDARD.equals(paramHandler.getOutputFileName()) ? System.err : System.out;
+        PrintStream log = null;
+        String warning = null;
+        if (paramHandler.getLogFileName() != null) {
+            try {
+                log = new PrintStream(new FileOutputStream(paramHandler.getLogFileName()));
+            } catch (FileNotFoundException | SecurityException e) {
+                // Если файл сообщений невозможно создать, сообщения выводятся в стандартный вывод.
+                warning = "\"" + paramHandler.getLogFileName() + "\": cannot create log file - messages will be "
+                        + "printed to console\n" + e.getMessage();
+            }
+        }
+        Diagnostics.start(log != null ? log : console, log != null, paramHandler.getMaxWarnings(),
+                paramHandler.getSampleWarnings());
+        if (warning != null) {
+            Diagnostics.message(ErrorLevel.WARNING, warning);
         }
     }
 
@@ -22,22 +50,28 @@ public class Main {
         // Обработчик командной строки валидирует параметры и преобразует их в данные,
         // необходимые для работы программы.
         ParamHandler paramHandler = new ParamHandler(args);
+        // Сообщения выводятся в отдельном потоке - до завершения программы.
+        startDiagnostics(paramHandler);
+        try {
+            // Полученные в ходе работы обработчика командной строки ошибки выводим пользователю.
+            if (!paramHandler.getWarningMessages().isEmpty()) {
+                printMessages(ErrorLevel.WARNING, paramHandler.getWarningMessages());
+            }
 
-        // Полученные в ходе работы обработчика командной строки ошибки выводим пользователю.
-        if (!paramHandler.getWarningMessages().isEmpty()) {
-            printMessages(ErrorLevel.WARNING, paramHandler.getWarningMessages());
-        }
-
-        // Если обработчик командной строки не выдал критических ошибок - продолжаем выполнение программы.
-        if (paramHandler.getCriticalErrorMessages().isEmpty()) {
-            Sorter sorter = new Sorter(paramHandler); // На основе параметров КС создаётся сортировщик.
-            if (!sorter.getCriticalErrorMessages().isEmpty()) {
-                // Если в сортировщике возникли критическе ошибки - выводим их пользователю.
-                // Внутренняя логика сортировщика в таком случае завершит работу программы.
-                printMessages(ErrorLevel.CRITICAL, sorter.getCriticalErrorMessages());
+            // Если обработчик командной строки не выдал критических ошибок - продолжаем выполнение программы.
+            if (paramHandler.getCriticalErrorMessages().isEmpty()) {
+                Sorter sorter = new Sorter(paramHandler); // На основе параметров КС создаётся сортировщик.
+                if (!sorter.getCriticalErrorMessages().isEmpty()) {
+                    // Если в сортировщике возникли критическе ошибки - выводим их пользователю.
+                    // Внутренняя логика сортировщика в таком случае завершит работу программы.
+                    printMessages(ErrorLevel.CRITICAL, sorter.getCriticalErrorMessages());
+                }
+            } else {
+                // Если в обработчике командной строки возникли критические ошибки - печатаем их и завершаем работу.
+                printMessages(ErrorLevel.CRITICAL, paramHandler.getCriticalErrorMessages());
             }
-        } else { // Если в обработчике командной строки возникли критические ошибки - печатаем их и завершаем работу.
-            printMessages(ErrorLevel.CRITICAL, paramHandler.getCriticalErrorMessages());
+        } finally {
+            Diagnostics.stop();
         }
     }
 }
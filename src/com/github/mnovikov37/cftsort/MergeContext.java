@@ -0,0 +1,403 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общее окружение режимов слияния (см. MergeMode): параметры командной строки после проверки совместимости
+ * (см. ParamHandler.checkInputs()), буфер записи в выходной файл, счётчики и создание входных потоков
+ * и слияний. Режимы не читают поля сортировщика - всё, что им нужно, передаётся через окружение.
+ */
+public class MergeContext {
+    public final static int GROUP_CHUNK_SIZE = 1 << 18;     // Размер блока промежуточного потока слияния
+    public final static int MIN_READ_BUFFER_SIZE = 1 << 12; // Наименьший начальный размер буфера чтения файла
+    private final static int PREFETCH_BATCH_SIZE = 1024;    // Ёмкость пакета упреждающего чтения
+    private final static int PREFETCH_DEPTH = 4;            // Количество пакетов упреждающего чтения на файл
+
+    private final SortType sortType;                // Порядок сортировки: по возрастанию либо по убыванию
+    private final DataType dataType;                // Тип данных: целые числа либо строки
+    private final Collation collation;              // Правило сравнения строк
+    private final KeyFields keyFields;              // Ключевые поля записей, null - элементы сравниваются целиком
+    private final boolean unique;                   // Из группы равных элементов записывается только первый
+    private final boolean counted;                  // К элементу группы дописывается количество элементов
+    private final boolean summed;                   // К элементу группы дописывается сумма поля значения
+    private final boolean memoryMapped;             // Входные файлы отображаются в память
+    private final boolean sliced;                   // Строки сравниваются прямо в буфере считывателя
+    private final ExecutorService prefetchExecutor; // Пул потоков упреждающего чтения, null - чтение без упреждения
+    private final Map<String, Integer> repeats;     // Количество повторов входных файлов, читаемых один раз
+    private final int readBufferSize;               // Начальный размер буфера чтения входного файла
+    private final int fanIn;                        // Наибольшее количество одновременно открытых сливаемых файлов
+    private final int threads;                      // Количество потоков параллельного слияния
+    private final long memory;                      // Бюджет памяти внешней сортировки в байтах
+    private final Path tempDirectory;               // Каталог временных файлов внешней сортировки
+    private final String outputFileName;            // Имя выходного файла
+    private final OutputBuffer outputBuffer;        // Буфер записи в выходной файл
+    private final Metrics metrics;                  // Счётчики входных и выходного файлов
+    private final Object lowerKey;                  // Нижняя граница диапазона ключей (--from), null - без границы
+    private final Object upperKey;                  // Верхняя граница диапазона ключей (--to), null - без границы
+    private final long limit;                       // Наибольшее количество строк выходного файла (--limit)
+    private final boolean lowLatency;               // Записанное передаётся получателю до ожидания входных данных
+    private boolean rangeSeekWarned;                // Выведено предупреждение о позиционировании файла без индекса
+
+    public SortType getSortType() { return sortType; }
+    public boolean isMemoryMapped() { return memoryMapped; }
+    public int getRepeats(String name) { return repeats.getOrDefault(name, 1); }
+    public int getReadBufferSize() { return readBufferSize; }
+    public int getFanIn() { return fanIn; }
+    public int getThreads() { return threads; }
+    public long getMemory() { return memory; }
+    public Path getTempDirectory() { return tempDirectory; }
+    public String getOutputFileName() { return outputFileName; }
+    public OutputBuffer getOutputBuffer() { return outputBuffer; }
+    public Metrics getMetrics() { return metrics; }
+    public Object getLowerKey() { return lowerKey; }
+    public Object getUpperKey() { return upperKey; }
+
+    /**
+     * Создаёт входной поток слияния для входного файла в зависимости от типа данных.
+     * При отображении файлов в память строки в кодировке UTF-8 сравниваются прямо в отображённой памяти,
+     * такие потоки не используют упреждающее чтение.
+     * @param file Обработчик входного файла.
+     * @param sliced true - строки сравниваются прямо в буфере считывателя.
+     * @param prefetch true - файл читается с упреждением.
+     * @return Входной поток слияния.
+     */
+    private MergeInput createInput(FileHandler file, boolean sliced, boolean prefetch) {
+        MergeInput result = null;
+        if (keyFields != null) { // Записи сравниваются по ключевым полям независимо от типа данных.
+            result = new RecordInput(file, keyFields);
+        } else {
+            switch (dataType) {
+                case INT, LONG -> {
+                    if (prefetch) {
+                        result = new PrefetchNumberInput(file, dataType, prefetchExecutor,
+                                PREFETCH_BATCH_SIZE, PREFETCH_DEPTH);
+                    } else {
+                        result = new NumberInput(file, dataType);
+                    }
+                }
+                case STRING -> {
+                    if (sliced) {
+                        result = new SliceInput(file, collation);
+                    } else if (prefetch) {
+                        result = new PrefetchStringInput(file, collation, prefetchExecutor, PREFETCH_BATCH_SIZE,
+                                PREFETCH_DEPTH);
+                    } else {
+                        result = new StringInput(file, collation);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Создаёт входной поток слияния без упреждающего чтения.
+     * @param file Обработчик входного файла либо его фрагмента.
+     * @return Входной поток слияния.
+     */
+    public MergeInput createInput(FileHandler file) {
+        return createInput(file, sliced, false);
+    }
+
+    /**
+     * Создаёт входной поток слияния для входного файла либо его фрагмента с учётом повторов файла
+     * в списке входных файлов: повторы не читаются отдельно, их элементы записываются повторно.
+     * @param file Обработчик входного файла либо его фрагмента.
+     * @param name Имя входного файла в командной строке.
+     * @param prefetch true - файл читается с упреждением, если оно включено.
+     * @return Входной поток слияния.
+     */
+    public MergeInput createInput(FileHandler file, String name, boolean prefetch) {
+        MergeInput result = createInput(file, sliced, prefetch && prefetchExecutor != null);
+        result.setRepeats(getRepeats(name));
+        return result;
+    }
+
+    /**
+     * Создаёт обработку групп равных элементов для выходного файла либо его части.
+     * @param output Буфер записи результата.
+     * @return Обработка групп, null, если записываются все элементы.
+     */
+    public Aggregator createAggregator(OutputBuffer output) {
+        Aggregator result = null;
+        if (unique || counted || summed) {
+            result = new Aggregator(output, counted, summed,
+                    keyFields != null ? keyFields.getDelimiter() : KeyFields.DEFAULT_DELIMITER);
+        }
+        return result;
+    }
+
+    /**
+     * Создаёт слияние с отбором элементов по диапазону ключей (--from, --to). Слияние, записывающее
+     * строки выходного файла либо его части, обрабатывает группы равных элементов и ограничивает
+     * количество строк (--limit).
+     * @param inputs Входные потоки слияния.
+     * @param output Буфер записи результата.
+     * @param last true - слияние записывает строки выходного файла, false - промежуточный поток или серию.
+     * @return Слияние.
+     */
+    public Merger createMerger(MergeInput[] inputs, OutputBuffer output, boolean last) {
+        Merger result = new Merger(inputs, sortType, output, last ? createAggregator(output) : null);
+        result.setRange(lowerKey, upperKey);
+        if (last) {
+            result.setLimit(limit);
+        }
+        return result;
+    }
+
+    /**
+     * Создаёт внешнюю сортировку в заданном пуле потоков с отбором элементов по диапазону ключей
+     * и ограничением количества строк.
+     * @param executor Пул потоков сортировки блоков.
+     * @return Внешняя сортировка.
+     */
+    public ExternalSorter createExternalSorter(ExecutorService executor) {
+        ExternalSorter result = new ExternalSorter(dataType, sortType, collation, keyFields, tempDirectory, memory,
+                threads, executor);
+        result.setRange(lowerKey, upperKey);
+        result.setLimit(limit);
+        return result;
+    }
+
+    /**
+     * Сливает входные потоки в выходной файл: при N потоках больше одного - параллельно по группам
+     * (см. ParallelMerge), иначе - последовательно. При последовательном слиянии с --low-latency потоковые
+     * входные файлы перед ожиданием данных отдают получателю всё, что уже можно записать
+     * (см. Merger.flushPending()).
+     * @param inputs Входные потоки слияния.
+     * @throws IOException При ошибке записи в выходной файл.
+     */
+    public void merge(MergeInput[] inputs) throws IOException {
+        // Каждая группа параллельного слияния содержит хотя бы два потока.
+        int groups = Math.min(threads, inputs.length / 2);
+        if (groups > 1) {
+            new ParallelMerge(this, inputs, groups).merge();
+        } else {
+            Merger merger = createMerger(inputs, outputBuffer, true);
+            for (MergeInput input: inputs) { // Потоковые файлы отдают записанное перед ожиданием данных.
+                if (lowLatency && input.getFile().getStream() != null) {
+                    input.getFile().getStream().setIdleListener(merger::flushPending);
+                }
+            }
+            merger.merge();
+        }
+    }
+
+    /**
+     * Дожидается завершения фонового упреждающего чтения - прежде чем закрывать читаемые файлы.
+     */
+    public void stopPrefetch() {
+        if (prefetchExecutor != null) {
+            shutdown(prefetchExecutor);
+        }
+    }
+
+    /**
+     * Открывает входной файл, не открытый заранее (см. --fan-in), и регистрирует его счётчики.
+     * @param name Имя входного файла.
+     * @return Обработчик файла, null, если файл не найден - сортировка продолжается без него.
+     */
+    public FileHandler openInput(String name) {
+        FileHandler result = null;
+        try {
+            result = new FileHandler(name, memoryMapped, readBufferSize);
+            metrics.register(result.getMetrics());
+        } catch (FileNotFoundException e) { // Файл удалён после запуска - сортировка продолжается без него.
+            Diagnostics.message(ErrorLevel.WARNING, "\"" + name + "\": file not found - skipped");
+        }
+        return result;
+    }
+
+    /**
+     * Начинает чтение входного файла с нижней границы диапазона ключей (--from): смещение первой строки,
+     * не предшествующей границе, находится двоичным поиском по смещениям в байтах (см. Partitioner.seek()).
+     * С индексом (--prescan) поиск сужается до соседних образцов и ведётся только в отсортированной части
+     * файла: файл позиционируется, только если до найденной строки порядок не нарушен, иначе он читается
+     * с начала, а элементы до границы пропускает слияние. Без индекса поиск ведётся по всему файлу, и
+     * нарушение порядка до границы не обнаруживается - об этом однократно выводится предупреждение.
+     * @param file Обработчик входного файла, из которого ещё ничего не прочитано.
+     * @throws IOException При ошибке определения размера либо позиционирования файла.
+     */
+    public void seekRange(FileHandler file) throws IOException {
+        InputIndex index = file.getIndex();
+        if (lowerKey != null && file.getFileChannel() != null) {
+            long violation = index != null ? index.getViolationOffset() : -1;
+            long sorted = violation >= 0 ? violation : file.getFileChannel().size(); // Конец отсортированной части
+            Partitioner partitioner = new Partitioner(List.of(file), new long[] {sorted},
+                    handler -> createInput(handler, false, false), sortType);
+            partitioner.setIndexes(new InputIndex[] {index});
+            long offset = partitioner.seek(0, lowerKey);
+            // Граница за нарушением порядка: файл будет исключён при чтении, позиционировать его нельзя.
+            if (offset > 0 && (violation < 0 || offset < violation)) {
+                file.seek(offset);
+                if (index == null && !rangeSeekWarned) {
+                    Diagnostics.message(ErrorLevel.WARNING, "--from: files without --prescan are positioned "
+                            + "by binary search - order violations before the bound are not detected");
+                    rangeSeekWarned = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Ключ элемента, сохранённого строкой, - для проверки порядка после возобновления с контрольной точки,
+     * для образцов индекса входного файла и для границ диапазона ключей.
+     * @param value Элемент в том виде, в каком он записан в выходной файл.
+     * @return Ключ (см. MergeInput.getCurrentKey()), null, если строка не является валидным элементом.
+     */
+    public Object parseKey(String value) {
+        byte[] bytes = (value + "\n").getBytes(StandardCharsets.UTF_8);
+        FileHandler probe = new FileHandler("checkpoint", Channels.newChannel(new ByteArrayInputStream(bytes)),
+                StandardCharsets.UTF_8, bytes.length);
+        probe.setQuiet(true);
+        MergeInput input = createInput(probe, false, false);
+        Object result = input.advance() ? input.getCurrentKey() : null;
+        probe.close();
+        return result;
+    }
+
+    /**
+     * Граница диапазона ключей (--from, --to).
+     * @param value Значение параметра - в том же виде, что и строка входного файла, null - граница не задана.
+     * @param option Имя параметра - для сообщения пользователю.
+     * @return Ключ границы, null, если граница не задана либо значение не является валидным элементом.
+     */
+    private Object parseBound(String value, String option) {
+        Object result = value != null ? parseKey(value) : null;
+        if (value != null && result == null) {
+            Diagnostics.message(ErrorLevel.WARNING, option + " \"" + value + "\" is not a valid element - ignored");
+        }
+        return result;
+    }
+
+    /**
+     * Параметры разбора и сравнения элементов: тип данных, порядок, правило сравнения, кодировка, ключевые поля.
+     * @return Строка параметров.
+     */
+    public static String getParseSignature(DataType dataType, SortType sortType, Collation collation,
+                                           KeyFields keyFields) {
+        StringBuilder result = new StringBuilder().append(dataType).append(' ').append(sortType).append(' ')
+                .append(collation.getType()).append(' ').append(collation.getLocale()).append(' ')
+                .append(Charset.defaultCharset().name());
+        if (keyFields != null) {
+            result.append(" key ").append((int) keyFields.getDelimiter()).append(' ')
+                    .append(Arrays.toString(keyFields.getColumns())).append(' ')
+                    .append(Arrays.toString(keyFields.getTypes())).append(' ').append(keyFields.getValueColumn());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Параметры разбора элементов, от которых зависит индекс входного файла: невалидные строки, порядок
+     * и ключи образцов.
+     * @return Строка параметров.
+     */
+    public String getIndexSignature() {
+        return getParseSignature(dataType, sortType, collation, keyFields);
+    }
+
+    /**
+     * Создаёт фоновый пул потоков с заданным именем потоков.
+     * Потоки - фоновые, чтобы не препятствовать завершению программы.
+     * @param threads Количество потоков.
+     * @param name Имя потоков.
+     * @return Пул потоков.
+     */
+    public static ExecutorService createExecutor(int threads, String name) {
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Дожидается завершения задач пула потоков.
+     * @param executor Пул потоков.
+     */
+    public static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Дожидается результата задачи: ошибка ввода-вывода в задаче передаётся вызывающей стороне,
+     * прочие ошибки не должны теряться.
+     * @param task Задача.
+     * @return Результат задачи.
+     * @throws IOException При ошибке ввода-вывода в задаче либо прерывании ожидания.
+     */
+    public static <T> T await(Future<T> task) throws IOException {
+        T result;
+        try {
+            result = task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        return result;
+    }
+
+    /**
+     * @param paramHandler Обработчик командной строки после проверки совместимости параметров.
+     * @param outputBuffer Буфер записи в выходной файл.
+     * @param metrics Счётчики входных и выходного файлов.
+     * @param repeats Количество повторов входных файлов, читаемых один раз.
+     * @param readBufferSize Начальный размер буфера чтения входного файла.
+     * @param tempDirectory Каталог временных файлов.
+     * @param prefetchExecutor Пул потоков упреждающего чтения, null - чтение без упреждения.
+     */
+    public MergeContext(ParamHandler paramHandler, OutputBuffer outputBuffer, Metrics metrics,
+                        Map<String, Integer> repeats, int readBufferSize, Path tempDirectory,
+                        ExecutorService prefetchExecutor) {
+        sortType = paramHandler.getSortType();
+        dataType = paramHandler.getDataType();
+        collation = paramHandler.getCollation();
+        keyFields = paramHandler.getKeyFields();
+        unique = paramHandler.isUnique();
+        counted = paramHandler.isCount();
+        summed = keyFields != null && keyFields.getValueColumn() >= 0;
+        memoryMapped = paramHandler.isMemoryMapped();
+        // В буфере считывателя строки сравниваются только побайтно - правила с ключами сортировки там не применяются.
+        sliced = dataType == DataType.STRING && keyFields == null && memoryMapped && !collation.isKeyed()
+                && Charset.defaultCharset().equals(StandardCharsets.UTF_8);
+        this.prefetchExecutor = prefetchExecutor;
+        this.repeats = repeats;
+        this.readBufferSize = readBufferSize;
+        fanIn = paramHandler.getFanIn();
+        threads = paramHandler.getThreads();
+        memory = paramHandler.getMemory();
+        this.tempDirectory = tempDirectory;
+        outputFileName = paramHandler.getOutputFileName();
+        this.outputBuffer = outputBuffer;
+        this.metrics = metrics;
+        limit = paramHandler.getLimit();
+        lowLatency = paramHandler.isLowLatency();
+        lowerKey = parseBound(paramHandler.getRangeFrom(), "--from");
+        upperKey = parseBound(paramHandler.getRangeTo(), "--to");
+    }
+}
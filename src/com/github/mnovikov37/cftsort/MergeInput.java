@@ -0,0 +1,148 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Входной поток сортировки слиянием.
+ * Хранит текущий (последний считанный) и предыдущий элементы одного входного файла.
+ * Конкретный способ хранения и сравнения элементов зависит от типа данных -
+ * например, числа хранятся в примитивных полях без упаковки в объекты.
+ */
+public abstract class MergeInput {
+    private final static int STRING_BUFFER_SIZE = 1 << 10;  // Размер буфера записи элемента в строку
+
+    /**
+     * Обработчик входного файла, из которого берутся элементы.
+     * null, если элементы берутся не из файла - например, из итератора.
+     */
+    protected final FileHandler file;
+    /**
+     * Признак наличия текущего элемента.
+     * false, если файл исчерпан либо исключён из дальнейшей сортировки.
+     */
+    protected boolean hasCurrent;
+    /**
+     * Количество повторов входного файла в списке входных файлов: повторы читаются одним потоком,
+     * а каждый элемент записывается столько раз (см. Merger.merge()).
+     */
+    protected int repeats = 1;
+
+    public FileHandler getFile() { return file; }
+    public boolean hasCurrent() { return hasCurrent; }
+    public int getRepeats() { return repeats; }
+    public void setRepeats(int repeats) { this.repeats = repeats; }
+
+    /**
+     * @return Имя входных данных для сообщений пользователю.
+     */
+    public String getName() { return file.getFileName(); }
+
+    /**
+     * @return Номер строки входного файла, из которой взят текущий элемент.
+     */
+    public long getLineNumber() { return file.getLineNumber(); }
+
+    /**
+     * Исключает файл из дальнейшей сортировки: текущий элемент отбрасывается.
+     */
+    public void exclude() { hasCurrent = false; }
+
+    /**
+     * Берёт из входного файла следующий элемент, текущий элемент становится предыдущим.
+     * @return true, если элемент считан, false, если файл исчерпан.
+     */
+    public abstract boolean advance();
+
+    /**
+     * Сравнивает текущий элемент с текущим элементом другого входного потока того же типа.
+     * Сравнение выполняется по возрастанию, порядок сортировки учитывается вызывающей стороной.
+     * @param other Другой входной поток.
+     * @return Положительное число, если текущий элемент больше, отрицательное - если меньше, ноль - если равны.
+     */
+    public abstract int compareTo(MergeInput other);
+
+    /**
+     * Сравнивает текущий элемент с предыдущим - для контроля порядка данных во входном файле.
+     * @return Положительное число, если текущий элемент больше, отрицательное - если меньше, ноль - если равны.
+     */
+    public abstract int compareToPrevious();
+
+    /**
+     * Сравнивает текущий элемент с предыдущим элементом другого входного потока того же типа -
+     * для определения групп равных элементов в выходных данных (см. Aggregator).
+     * @param other Другой входной поток, возможно, этот же.
+     * @return Положительное число, если текущий элемент больше, отрицательное - если меньше, ноль - если равны.
+     */
+    public abstract int compareToPreviousOf(MergeInput other);
+
+    /**
+     * Снимок текущего элемента в виде объекта-ключа: число - Long, строка - String.
+     * Ключи одного типа сравниваются методом compareKeys() в том же порядке, что и элементы входных потоков.
+     * Используется вне основного цикла слияния - например, для выбора границ диапазонов.
+     * @return Ключ текущего элемента.
+     */
+    public abstract Object getCurrentKey();
+
+    /**
+     * Сравнивает текущий элемент с ключом.
+     * @param key Ключ, полученный getCurrentKey() у потока того же типа.
+     * @return Положительное число, если текущий элемент больше, отрицательное - если меньше, ноль - если равны.
+     */
+    public abstract int compareToKey(Object key);
+
+    /**
+     * Сравнивает ключи, полученные getCurrentKey().
+     * @param a Первый ключ.
+     * @param b Второй ключ.
+     * @return Результат сравнения по возрастанию.
+     */
+    @SuppressWarnings("unchecked")
+    public static int compareKeys(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    /**
+     * Значение поля значения предыдущего элемента - для суммирования по группам (см. Aggregator).
+     * @return Значение, 0 - если у элементов нет поля значения.
+     */
+    public long getPreviousValue() { return 0; }
+
+    /**
+     * Записывает предыдущий элемент в выходной файл без конца строки.
+     * @param output Буфер записи в выходной файл.
+     * @throws IOException При ошибке записи.
+     */
+    public abstract void writePreviousElement(OutputBuffer output) throws IOException;
+
+    /**
+     * Строковое представление предыдущего элемента - так, как он записывается в выходной файл.
+     * Используется для сохранения элемента вне слияния (см. Checkpoint, InputIndex).
+     * @return Элемент в виде строки в кодировке UTF-8.
+     * @throws IOException При ошибке записи элемента.
+     */
+    public String previousToString() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputBuffer buffer = new OutputBuffer(Channels.newChannel(bytes), STRING_BUFFER_SIZE, false,
+                StandardCharsets.UTF_8);
+        writePreviousElement(buffer);
+        buffer.close();
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Записывает предыдущий элемент в выходной файл отдельной строкой.
+     * @param output Буфер записи в выходной файл.
+     * @throws IOException При ошибке записи.
+     */
+    public void writePrevious(OutputBuffer output) throws IOException {
+        writePreviousElement(output);
+        output.writeLineEnd();
+    }
+
+    protected MergeInput(FileHandler file) {
+        this.file = file;
+    }
+}
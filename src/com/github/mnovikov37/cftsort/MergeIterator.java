@@ -0,0 +1,162 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Слияние отсортированных источников для использования программы как библиотеки - без командной строки и файлов.
+ * Результат слияния забирается по одному элементу: следующий элемент вычисляется только по запросу,
+ * из каждого источника считано не больше одного элемента сверх выданных, поэтому медленный потребитель
+ * естественным образом сдерживает чтение источников.
+ * Слияние выполняется тем же механизмом, что и в программе (Merger): источник, в котором нарушен порядок
+ * сортировки, исключается из дальнейшего слияния с выдачей предупреждения.
+ * @param <T> Тип элементов.
+ */
+public class MergeIterator<T> implements Iterator<T>, AutoCloseable {
+    private final static int UNKNOWN = -2;  // Следующий элемент ещё не вычислен
+
+    private final MergeInput[] inputs;      // Входные потоки слияния
+    private final Merger merger;            // Слияние, null - если источников нет
+    private final List<FileHandler> files;  // Обработчики входных каналов, закрываемые по завершении
+    private int nextIndex;                  // Индекс потока со следующим элементом, -1 - источники исчерпаны
+
+    @Override
+    public boolean hasNext() {
+        if (nextIndex == UNKNOWN) {
+            nextIndex = merger != null ? merger.next() : -1;
+        }
+        return nextIndex >= 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = ((IteratorInput<T>) inputs[nextIndex]).getPrevious();
+        nextIndex = UNKNOWN;
+        return result;
+    }
+
+    /**
+     * Записывает оставшиеся элементы в канал - по одному элементу в строке, строковым представлением.
+     * Канал не закрывается.
+     * @param channel Канал записи.
+     * @param charset Кодировка строк.
+     * @return Количество записанных элементов.
+     * @throws IOException При ошибке записи.
+     */
+    public long writeTo(WritableByteChannel channel, Charset charset) throws IOException {
+        OutputBuffer output = new OutputBuffer(channel, OutputBuffer.DEFAULT_BUFFER_SIZE, false, charset);
+        long result = 0;
+        while (hasNext()) {
+            inputs[nextIndex].writePrevious(output);
+            nextIndex = UNKNOWN;
+            result++;
+        }
+        output.flush();
+        return result;
+    }
+
+    /**
+     * Закрывает входные каналы. Итераторы-источники не закрываются.
+     */
+    @Override
+    public void close() {
+        for (FileHandler file: files) {
+            file.close();
+        }
+    }
+
+    /**
+     * Слияние итераторов.
+     * @param sources Источники, каждый отсортирован в порядке компаратора.
+     * @param comparator Сравнение элементов. Для порядка по убыванию - обратный компаратор.
+     * @param <T> Тип элементов.
+     * @return Итератор результата слияния.
+     */
+    public static <T> MergeIterator<T> of(List<? extends Iterator<? extends T>> sources,
+                                          Comparator<? super T> comparator) {
+        MergeInput[] inputs = new MergeInput[sources.size()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new IteratorInput<T>("source " + (i + 1), sources.get(i), comparator);
+        }
+        return new MergeIterator<>(inputs, new ArrayList<>());
+    }
+
+    /**
+     * Слияние каналов, содержащих строки - по одному элементу в строке.
+     * Строки проверяются так же, как строки входных файлов программы: пустые строки и строки с пробелами
+     * пропускаются с предупреждением.
+     * @param sources Каналы чтения, каждый отсортирован в порядке компаратора.
+     * @param charset Кодировка строк.
+     * @param comparator Сравнение строк.
+     * @return Итератор результата слияния. Закрывает каналы при закрытии.
+     */
+    public static MergeIterator<String> ofChannels(List<? extends ReadableByteChannel> sources, Charset charset,
+                                                   Comparator<? super String> comparator) {
+        MergeInput[] inputs = new MergeInput[sources.size()];
+        List<FileHandler> files = new ArrayList<>();
+        for (int i = 0; i < inputs.length; i++) {
+            FileHandler file = new FileHandler("source " + (i + 1), sources.get(i), charset);
+            files.add(file);
+            // Строка читается только по запросу слияния - канал не опережает его больше чем на элемент.
+            inputs[i] = new IteratorInput<String>(file.getFileName(), new Iterator<>() {
+                private String next;        // Прочитанная, но ещё не выданная строка
+                private boolean fetched;    // Строка прочитана: next - она либо null в конце канала
+
+                @Override
+                public boolean hasNext() {
+                    if (!fetched) {
+                        next = file.getNextString();
+                        fetched = true;
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    fetched = false;
+                    return next;
+                }
+            }, comparator);
+        }
+        return new MergeIterator<>(inputs, files);
+    }
+
+    /**
+     * Слияние потоков ввода, содержащих строки. См. ofChannels().
+     * @param sources Потоки ввода, каждый отсортирован в порядке компаратора.
+     * @param charset Кодировка строк.
+     * @param comparator Сравнение строк.
+     * @return Итератор результата слияния. Закрывает потоки ввода при закрытии.
+     */
+    public static MergeIterator<String> ofStreams(List<? extends InputStream> sources, Charset charset,
+                                                  Comparator<? super String> comparator) {
+        List<ReadableByteChannel> channels = new ArrayList<>();
+        for (InputStream source: sources) {
+            channels.add(Channels.newChannel(source));
+        }
+        return ofChannels(channels, charset, comparator);
+    }
+
+    private MergeIterator(MergeInput[] inputs, List<FileHandler> files) {
+        this.inputs = inputs;
+        this.merger = inputs.length > 0 ? new Merger(inputs, SortType.ASC, null) : null;
+        this.files = files;
+        this.nextIndex = UNKNOWN;
+    }
+}
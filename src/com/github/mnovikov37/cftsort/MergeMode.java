@@ -0,0 +1,17 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Режим слияния входных данных в выходной файл: последовательное либо параллельное слияние, слияние
+ * по диапазонам ключей, естественных серий, каскадное, с контрольными точками, внешняя сортировка.
+ * Режим выбирает сортировщик по параметрам командной строки после проверки их совместимости
+ * (см. ParamHandler.checkInputs()), всё необходимое режим получает через окружение (см. MergeContext).
+ */
+public interface MergeMode {
+    /**
+     * Сливает входные данные в выходной файл либо его часть.
+     * @throws IOException При ошибке записи результата или временных файлов.
+     */
+    void merge() throws IOException;
+}
@@ -0,0 +1,340 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Слияние отсортированных входных потоков в один выходной поток.
+ * Следующий элемент выбирается деревом проигравших. Файл, в котором нарушен порядок сортировки,
+ * исключается из дальнейшего слияния с выдачей предупреждения.
+ * Результат может проходить через обработку групп равных элементов (см. Aggregator).
+ * Элемент потока, представляющего несколько повторов входного файла, записывается по разу на каждый повтор.
+ * Слияние может ограничиваться диапазоном ключей (см. setRange()) и количеством записываемых строк (см. setLimit()).
+ * Длинная серия побед одного потока записывается без перестройки дерева (см. gallop()).
+ */
+public class Merger {
+    private final static int CHECKPOINT_MASK = (1 << 12) - 1; // Маска счётчика элементов для контрольной точки
+    private final static int MIN_GALLOP = 7;    // Начальный порог серии: побед подряд одного потока
+    private final static int GALLOP_FLOOR = 2;  // Наименьший порог серии
+
+    private final MergeInput[] inputs;  // Входные потоки слияния
+    private final SortType sortType;    // Порядок сортировки: по возрастанию либо по убыванию
+    private final OutputBuffer output;  // Буфер записи результата
+    private final Aggregator aggregator; // Обработка групп равных элементов, null - элементы записываются все
+    private LoserTree tree;             // Дерево проигравших, null - слияние ещё не начато
+    private int lastIndex = -1;         // Индекс потока, предыдущий элемент которого выдан последним
+    private boolean newGroup;           // Последний выданный элемент не равен выданному перед ним
+    private Checkpoint checkpoint;      // Контрольные точки, null - не сохраняются
+    private Object[] previousKeys;      // Ключи элементов, записанных до возобновления, null - без возобновления
+    private Object lowerKey;            // Нижняя граница диапазона ключей, null - без границы
+    private Object upperKey;            // Верхняя граница диапазона ключей (не включается), null - без границы
+    private long limit = Long.MAX_VALUE; // Наибольшее количество записываемых строк
+    private long written;               // Количество записанных строк
+    private int pendingIndex = -1;      // Поток, предыдущий элемент которого выбран, но не записан, -1 - нет
+
+    /**
+     * Включает сохранение контрольных точек.
+     * @param checkpoint Контрольная точка: входные потоки соответствуют её входным файлам по порядку.
+     */
+    public void setCheckpoint(Checkpoint checkpoint) { this.checkpoint = checkpoint; }
+
+    /**
+     * Задаёт элементы, записанные из каждого потока последними до возобновления слияния с контрольной точки:
+     * первый элемент потока проверяется на порядок сортировки относительно них.
+     * @param previousKeys Ключи элементов (см. MergeInput.getCurrentKey()), null - из потока ничего не записано.
+     */
+    public void setPreviousKeys(Object[] previousKeys) { this.previousKeys = previousKeys; }
+
+    /**
+     * Ограничивает слияние диапазоном ключей [lowerKey, upperKey) в порядке сортировки.
+     * Элементы, предшествующие нижней границе, пропускаются в начале каждого потока с проверкой порядка
+     * сортировки - нарушение порядка до границы исключает поток, как без границы. Поток, текущий элемент
+     * которого достиг верхней границы, больше не выигрывает и не читается, а когда её достигает
+     * наименьший из текущих элементов - слияние завершается.
+     * @param lowerKey Нижняя граница (см. MergeInput.getCurrentKey()), null - без границы.
+     * @param upperKey Верхняя граница, не входящая в диапазон, null - без границы.
+     */
+    public void setRange(Object lowerKey, Object upperKey) {
+        this.lowerKey = lowerKey;
+        this.upperKey = upperKey;
+    }
+
+    /**
+     * Ограничивает количество записываемых строк: слияние завершается, как только они записаны.
+     * При обработке групп равных элементов строка - группа, последняя группа учитывается целиком.
+     * @param limit Наибольшее количество строк.
+     */
+    public void setLimit(long limit) { this.limit = limit; }
+
+    /**
+     * Сравнивает текущие элементы двух входных потоков с учётом порядка сортировки.
+     * Потоки, исключённые из сортировки (без текущего элемента), считаются больше любого элемента,
+     * поэтому никогда не выигрывают у потоков с данными.
+     * @param i Индекс первого потока.
+     * @param j Индекс второго потока.
+     * @return Положительное число, если элемент i идёт в выходных данных позже элемента j,
+     * отрицательное число, если раньше, ноль в случае равенства.
+     */
+    private int compare(int i, int j) {
+        int result;
+        if (!inputs[i].hasCurrent()) {
+            result = inputs[j].hasCurrent() ? 1 : 0;
+        } else if (!inputs[j].hasCurrent()) {
+            result = -1;
+        } else {
+            // В случае сортировки по убыванию результат инвертируется.
+            result = inputs[i].compareTo(inputs[j]) * sortType.getMultiplier();
+        }
+        return result;
+    }
+
+    /**
+     * Определяет, идёт ли текущий элемент потока i в выходных данных раньше текущего элемента потока j.
+     * При равенстве раньше идёт элемент потока с большим индексом - так же, как в дереве проигравших.
+     * @param i Индекс первого потока.
+     * @param j Индекс второго потока.
+     * @return true, если элемент потока i идёт раньше.
+     */
+    private boolean beats(int i, int j) {
+        int result = compare(i, j);
+        return result < 0 || (result == 0 && i > j);
+    }
+
+    /**
+     * Вычисляет индекс входного потока, элемент которого будет следующим в выходных данных сортировки.
+     * В случае сортировки по возрастанию - индекс наименьшего элемента,
+     * в случае сортировки по убыванию - индекс наибольшего элемента.
+     * Индекс берётся из дерева проигравших, поэтому не требует просмотра всех потоков.
+     * @param tree Дерево проигравших, построенное по входным потокам.
+     * @return Индекс следующего элемента, согласно логике сортировки, -1, если его вычислить невозможно.
+     */
+    private int calcNextIndex(LoserTree tree) {
+        int result = tree.winner();
+        if (!inputs[result].hasCurrent()) { // Победитель без данных означает, что все файлы исчерпаны.
+            result = -1;
+        }
+        return result;
+    }
+
+    /**
+     * Проверяет, предшествует ли текущий элемент потока ключу в порядке сортировки.
+     * @param input Входной поток с текущим элементом.
+     * @param key Ключ, null - граница не задана.
+     * @return true, если ключ задан и элемент ему предшествует.
+     */
+    private boolean precedes(MergeInput input, Object key) {
+        return key != null && input.compareToKey(key) * sortType.getMultiplier() < 0;
+    }
+
+    /**
+     * Исключает входной поток из дальнейшего слияния с предупреждением о нарушении порядка сортировки.
+     * @param input Входной поток.
+     */
+    private static void excludeInput(MergeInput input) {
+        input.exclude();
+        if (input.getFile() != null) {
+            input.getFile().getMetrics().setExcluded();
+        }
+        Diagnostics.warning(input.getName(), input.getLineNumber(), WarningReason.INVALID_ORDER);
+    }
+
+    /**
+     * Берёт из входного файла следующий элемент для сортировки,
+     * текущий элемент становится предыдущим - для отслеживания корректности порядка данных во входном файле.
+     * @param index - номер входного потока, который нужно обновить.
+     */
+    private void shift(int index) {
+        MergeInput input = inputs[index];
+        // В случае, если новый элемент, взятый из файла, нарушает заданный порядок сортировки,
+        // он отбрасывается, и дальнейшая обработка данного файла прекращается.
+        // Об этом сообщается пользователю.
+        if (input.advance() && input.compareToPrevious() * sortType.getMultiplier() < 0) {
+            excludeInput(input);
+        }
+    }
+
+    /**
+     * Один шаг слияния: выбирает следующий элемент и продвигает его входной поток.
+     * При первом вызове считывает первые элементы всех потоков и строит дерево проигравших.
+     * Позволяет забирать результат слияния по одному элементу, не записывая его в буфер.
+     * @return Индекс входного потока, предыдущий элемент которого - следующий элемент результата,
+     * -1, если все потоки исчерпаны.
+     */
+    public int next() {
+        if (tree == null) {
+            for (int i = 0; i < inputs.length; i++) {
+                MergeInput input = inputs[i];
+                // Считываем первый элемент каждого файла, пропуская элементы до нижней границы диапазона:
+                // пропускаемые элементы проверяются на порядок сортировки так же, как записываемые.
+                // После возобновления он не должен предшествовать элементу, записанному из этого файла последним.
+                boolean found = input.advance();
+                while (found && precedes(input, lowerKey)) {
+                    shift(i);
+                    found = input.hasCurrent();
+                }
+                if (found && previousKeys != null && previousKeys[i] != null && precedes(input, previousKeys[i])) {
+                    excludeInput(input);
+                }
+            }
+            tree = new LoserTree(inputs.length, this::compare);
+        }
+        int nextIndex = calcNextIndex(tree); // Вычисляем, элемент какого файла будет следующим в выходных данных.
+        if (nextIndex >= 0 && upperKey != null && !precedes(inputs[nextIndex], upperKey)) {
+            nextIndex = -1; // Наименьший из текущих элементов вышел за верхнюю границу - остальные тоже.
+        }
+        if (nextIndex >= 0) {
+            if (aggregator != null) { // Последний выданный элемент - предыдущий элемент его потока.
+                newGroup = lastIndex < 0 || inputs[nextIndex].compareToPreviousOf(inputs[lastIndex]) != 0;
+                lastIndex = nextIndex;
+            }
+            pendingIndex = nextIndex;
+            shift(nextIndex); // Считываем из входного файла следующий элемент.
+            tree.replay(nextIndex); // Новый элемент файла занимает своё место в дереве.
+        }
+        return nextIndex;
+    }
+
+    /**
+     * Проверяет, начнёт ли следующий элемент новую группу равных элементов - контрольная точка сохраняется
+     * только на границе групп, чтобы дополнения группы (см. Aggregator) не оказались разделены ею.
+     * @return true, если следующий элемент не равен последнему выданному либо группы не обрабатываются.
+     */
+    private boolean isGroupBoundary() {
+        int nextIndex = calcNextIndex(tree);
+        return aggregator == null || nextIndex < 0 || inputs[nextIndex].compareToPreviousOf(inputs[lastIndex]) != 0;
+    }
+
+    /**
+     * Записывает выбранный элемент - предыдущий элемент его потока - столько раз, сколько повторов у потока,
+     * но не больше ограничения количества строк.
+     * @param input Входной поток.
+     * @throws IOException При ошибке записи.
+     */
+    private void writeRepeats(MergeInput input) throws IOException {
+        for (int r = input.getRepeats(); r > 0 && written < limit; r--) {
+            input.writePrevious(output);
+            written++;
+        }
+    }
+
+    /**
+     * Записывает серию элементов потока-победителя, пока его текущий элемент идёт в выходных данных раньше
+     * текущего элемента второго в турнире потока (см. LoserTree.runnerUp()): остальные потоки не меняются,
+     * поэтому на элемент достаточно одного сравнения вместо перестройки дерева - слияние перекошенных
+     * и почти сцеплённых входных файлов приближается к их простому копированию. Каждый элемент по-прежнему
+     * проверяется на порядок сортировки и верхнюю границу диапазона. По окончании серии дерево перестраивается.
+     * @param index Индекс потока, выигравшего несколько раз подряд.
+     * @return Количество элементов, записанных серией.
+     * @throws IOException При ошибке записи.
+     */
+    private int gallop(int index) throws IOException {
+        int result = 0;
+        if (tree.winner() == index) { // Следующий элемент потока тоже выигрывает - серия продолжается.
+            MergeInput input = inputs[index];
+            int rival = tree.runnerUp();
+            while (written < limit && input.hasCurrent() && (rival < 0 || beats(index, rival))
+                    && (upperKey == null || precedes(input, upperKey))) {
+                pendingIndex = index;
+                shift(index);
+                if (pendingIndex >= 0) { // Элемент не записан при ожидании данных (см. flushPending()).
+                    writeRepeats(input);
+                    pendingIndex = -1;
+                }
+                result++;
+            }
+            tree.replay(index);
+        }
+        return result;
+    }
+
+    /**
+     * Обработчик ожидания данных потоковым входным файлом (см. StreamChannel, --low-latency): выбранный
+     * элемент записывается, не дожидаясь следующего элемента своего потока, и буфер записи сбрасывается.
+     * Вызывается потоком слияния из advance() - когда выбранный элемент уже стал предыдущим элементом потока.
+     * При обработке групп и контрольных точках буфер только сбрасывается: группу завершает следующий элемент.
+     * @throws IOException При ошибке записи.
+     */
+    public void flushPending() throws IOException {
+        if (pendingIndex >= 0 && aggregator == null && checkpoint == null) {
+            writeRepeats(inputs[pendingIndex]);
+            pendingIndex = -1;
+        }
+        output.flush();
+    }
+
+    /**
+     * Выполняет слияние: записывает элементы в порядке сортировки, пока все потоки не будут исчерпаны
+     * либо не будет записано заданное количество строк.
+     * @throws IOException При ошибке записи результата - слияние прерывается.
+     */
+    public void merge() throws IOException {
+        int nextIndex;
+        if (aggregator == null && checkpoint == null) {
+            int streakIndex = -1;   // Поток, выигрывающий подряд
+            int streak = 0;         // Количество его побед подряд
+            int minGallop = MIN_GALLOP; // Порог серии: снижается после длинных серий, растёт после коротких
+            while (written < limit && (nextIndex = next()) >= 0) {
+                if (pendingIndex >= 0) { // Элемент не записан при ожидании данных (см. flushPending()).
+                    writeRepeats(inputs[nextIndex]);
+                    pendingIndex = -1;
+                }
+                streak = nextIndex == streakIndex ? streak + 1 : 1;
+                streakIndex = nextIndex;
+                if (streak >= minGallop) { // Короткие серии не окупают поиск второго и перестройку дерева.
+                    minGallop = gallop(nextIndex) >= MIN_GALLOP ? Math.max(minGallop - 1, GALLOP_FLOOR)
+                            : minGallop + 1;
+                    streak = 0;
+                }
+            }
+        } else {
+            boolean[] emitted = new boolean[inputs.length]; // Потоки с элементами, записанными после контрольной точки
+            long count = 0;
+            // Элемент, продолжающий последнюю группу, записывается и после достижения ограничения.
+            while ((nextIndex = next()) >= 0 && (written < limit || (aggregator != null && !newGroup))) {
+                MergeInput input = inputs[nextIndex];
+                // Повторы элемента продолжают его группу.
+                for (int r = 0; r < input.getRepeats() && (aggregator != null || written < limit); r++) {
+                    if (aggregator == null) {
+                        input.writePrevious(output);
+                        written++;
+                    } else if (aggregator.add(newGroup && r == 0, input.getPreviousValue())) {
+                        input.writePreviousElement(output);
+                        written++;
+                    }
+                }
+                emitted[nextIndex] = true;
+                if (checkpoint != null && (++count & CHECKPOINT_MASK) == 0 && checkpoint.isDue()
+                        && isGroupBoundary()) {
+                    if (aggregator != null) {
+                        aggregator.closeGroup();
+                    }
+                    checkpoint.save(inputs, emitted, output);
+                }
+            }
+            if (aggregator != null) {
+                aggregator.finish();
+            }
+        }
+    }
+
+    /**
+     * @param inputs Входные потоки слияния. Хотя бы один.
+     * @param sortType Порядок сортировки.
+     * @param output Буфер записи результата.
+     * @param aggregator Обработка групп равных элементов, пишущая в тот же буфер, null - записываются все элементы.
+     */
+    public Merger(MergeInput[] inputs, SortType sortType, OutputBuffer output, Aggregator aggregator) {
+        this.inputs = inputs;
+        this.sortType = sortType;
+        this.output = output;
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * @param inputs Входные потоки слияния. Хотя бы один.
+     * @param sortType Порядок сортировки.
+     * @param output Буфер записи результата. Может быть null, если результат забирается методом next().
+     */
+    public Merger(MergeInput[] inputs, SortType sortType, OutputBuffer output) {
+        this(inputs, sortType, output, null);
+    }
+}
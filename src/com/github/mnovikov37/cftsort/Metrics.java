@@ -0,0 +1,152 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Счётчики сортировки: входные файлы (в том числе фрагменты и временные файлы-серии) и выходной файл.
+ * Формирует строку прогресса и итоговую сводку в формате JSON.
+ * Счётчики обновляются самими обработчиками файлов без блокировок (см. InputMetrics, OutputMetrics),
+ * здесь они только читаются.
+ */
+public class Metrics {
+    private final static double NANOS = 1e9;    // Наносекунд в секунде
+
+    private final long startNanos;                                      // Время начала сортировки
+    private final List<InputMetrics> inputs = new CopyOnWriteArrayList<>(); // Счётчики входных данных
+    private String outputName;                                          // Имя выходного файла
+    private OutputMetrics output;                                       // Счётчики выходного файла
+
+    /**
+     * Регистрирует счётчики входных данных.
+     * @param metrics Счётчики обработчика входных данных.
+     */
+    public void register(InputMetrics metrics) {
+        inputs.add(metrics);
+    }
+
+    /**
+     * @param name Имя выходного файла.
+     * @param metrics Счётчики буфера записи в выходной файл.
+     */
+    public void setOutput(String name, OutputMetrics metrics) {
+        this.outputName = name;
+        this.output = metrics;
+    }
+
+    /**
+     * @param bytes Количество байт.
+     * @return Количество байт в удобных для чтения единицах.
+     */
+    private static String formatBytes(double bytes) {
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        int unit = 0;
+        double value = bytes;
+        while (value >= 1024 && unit < units.length - 1) {
+            value /= 1024;
+            unit++;
+        }
+        return String.format(Locale.ROOT, "%.1f %s", value, units[unit]);
+    }
+
+    /**
+     * Строка прогресса: доля обработанных входных данных, количество элементов, скорость и оценка
+     * оставшегося времени по смещению в байтах. Входные данные неизвестного объёма в оценке не учитываются.
+     * @return Строка прогресса.
+     */
+    public String formatProgress() {
+        double seconds = (System.nanoTime() - startNanos) / NANOS;
+        long size = 0;
+        long bytes = 0;
+        long records = 0;
+        for (InputMetrics input: inputs) {
+            if (input.getSize() >= 0) {
+                size += input.getSize();
+                bytes += Math.min(input.getBytes(), input.getSize());
+            }
+            records += input.getRecords();
+        }
+        double rate = seconds > 0 ? bytes / seconds : 0;
+        StringBuilder sb = new StringBuilder("Progress: ");
+        if (size > 0) {
+            sb.append(String.format(Locale.ROOT, "%.1f%% ", 100.0 * bytes / size));
+        }
+        sb.append("(").append(formatBytes(bytes)).append(" of ").append(formatBytes(size)).append(" read), ")
+                .append(records).append(" records read");
+        if (output != null) {
+            sb.append(", ").append(output.getRecords()).append(" records written (")
+                    .append(formatBytes(output.getBytes())).append(")");
+        }
+        sb.append(", ").append(formatBytes(rate)).append("/s");
+        if (rate > 0 && size > bytes) {
+            long eta = (long) ((size - bytes) / rate);
+            sb.append(String.format(Locale.ROOT, ", ETA %d:%02d:%02d", eta / 3600, eta / 60 % 60, eta % 60));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param s Строка.
+     * @return Строка в кавычках в формате JSON.
+     */
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    /**
+     * Итоговая сводка в формате JSON.
+     * @return Сводка: время работы, счётчики каждого входного файла и выходного файла.
+     */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\n");
+        sb.append(String.format(Locale.ROOT, "  \"elapsedSeconds\": %.3f,%n",
+                (System.nanoTime() - startNanos) / NANOS));
+        sb.append("  \"inputs\": [");
+        for (int i = 0; i < inputs.size(); i++) {
+            InputMetrics input = inputs.get(i);
+            sb.append(i > 0 ? ",\n" : "\n")
+                    .append("    {\"name\": ").append(quote(input.getName()))
+                    .append(", \"size\": ").append(input.getSize())
+                    .append(", \"bytes\": ").append(input.getBytes())
+                    .append(", \"records\": ").append(input.getRecords())
+                    .append(", \"skipped\": {\"empty\": ").append(input.getSkippedEmpty())
+                    .append(", \"space\": ").append(input.getSkippedSpace())
+                    .append(", \"format\": ").append(input.getSkippedFormat())
+                    .append("}, \"excluded\": ").append(input.isExcluded())
+                    .append(String.format(Locale.ROOT, ", \"stallSeconds\": %.3f}", input.getStallNanos() / NANOS));
+        }
+        sb.append(inputs.isEmpty() ? "]" : "\n  ]");
+        if (output != null) {
+            sb.append(",\n  \"output\": {\"name\": ").append(quote(outputName))
+                    .append(", \"records\": ").append(output.getRecords())
+                    .append(", \"bytes\": ").append(output.getBytes())
+                    .append(", \"flushes\": ").append(output.getFlushes())
+                    .append(String.format(Locale.ROOT, ", \"flushSeconds\": %.3f, \"maxFlushMillis\": %.3f}",
+                            output.getFlushNanos() / NANOS, output.getMaxFlushNanos() / 1e6));
+        }
+        return sb.append("\n}\n").toString();
+    }
+
+    public Metrics() {
+        this.startNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Слияние естественных серий: нарушение порядка во входном файле не исключает остаток файла,
+ * а начинает новую серию. Серии всех файлов (см. findRuns) сливаются как отдельные входные потоки -
+ * фрагменты файлов, читаемые без повторных предупреждений о невалидных строках.
+ * При N потоках больше одного файлы просматриваются параллельно.
+ * Если серий слишком много (данные далеки от упорядоченных), выполняется внешняя сортировка.
+ */
+public class NaturalRunsMerge implements MergeMode {
+    private final static int RUN_BUFFER_SIZE = 1 << 16;     // Начальный размер буфера чтения естественной серии
+    private final static int MAX_NATURAL_RUNS = 1 << 10;    // Максимальное количество сливаемых естественных серий
+
+    private final MergeContext context;     // Окружение слияния
+    private final List<FileHandler> files;  // Обработчики несжатых входных файлов
+
+    /**
+     * Находит естественные серии входного файла - участки, в которых соблюдён порядок сортировки.
+     * Файл просматривается целиком, каждый элемент, нарушающий порядок, начинает новую серию.
+     * Предупреждения о невалидных строках выводятся при просмотре - с номерами строк от начала файла.
+     * @param file Обработчик входного файла.
+     * @return Границы серий: серия k - фрагмент [result[k], result[k + 1]), последний элемент - размер файла.
+     * @throws IOException При ошибке определения размера файла.
+     */
+    private long[] findRuns(FileHandler file) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        MergeInput input = context.createInput(file);
+        if (input.advance()) {
+            while (input.advance()) {
+                if (input.compareToPrevious() * context.getSortType().getMultiplier() < 0) {
+                    bounds.add(file.getScanner().getLineOffset());
+                }
+            }
+        }
+        bounds.add(file.getFileChannel().size());
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Внешняя сортировка вместо слияния серий: файлы уже прочитаны при поиске серий - читаем их заново.
+     * Внешняя сортировка не учитывает повторы файла - каждый повтор читается отдельно.
+     * @param sources Список, в который добавляются обработчики повторно читаемых файлов, - для закрытия.
+     * @throws IOException При ошибке записи во временные файлы или в выходной файл.
+     */
+    private void sortUnsorted(List<FileHandler> sources) throws IOException {
+        for (FileHandler file: files) {
+            for (int r = context.getRepeats(file.getFileName()); r > 0; r--) {
+                FileHandler source = new FileHandler(file.getFileName(), file.getFileChannel(), 0,
+                        file.getFileChannel().size(), context.isMemoryMapped(), MergeContext.GROUP_CHUNK_SIZE);
+                source.setQuiet(true);
+                sources.add(source);
+            }
+        }
+        new ExternalSortMerge(context, sources, null).merge();
+    }
+
+    @Override
+    public void merge() throws IOException {
+        long[][] bounds = new long[files.size()][];
+        int scanners = Math.min(context.getThreads(), files.size());
+        if (scanners > 1) {
+            ExecutorService executor = MergeContext.createExecutor(scanners, "cftsort-scan");
+            try {
+                List<Future<long[]>> tasks = new ArrayList<>();
+                for (FileHandler file: files) {
+                    tasks.add(executor.submit(() -> findRuns(file)));
+                }
+                for (int i = 0; i < bounds.length; i++) {
+                    bounds[i] = MergeContext.await(tasks.get(i));
+                }
+            } finally {
+                MergeContext.shutdown(executor);
+            }
+        } else {
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = findRuns(files.get(i));
+            }
+        }
+
+        int count = 0;
+        for (long[] fileBounds: bounds) {
+            count += fileBounds.length - 1;
+        }
+        List<FileHandler> runs = new ArrayList<>();
+        List<MergeInput> runInputs = new ArrayList<>();
+        try {
+            if (count > MAX_NATURAL_RUNS) {
+                Diagnostics.message(ErrorLevel.WARNING, count
+                        + " natural runs found - external sort will be used instead");
+                sortUnsorted(runs);
+            } else {
+                for (int i = 0; i < bounds.length; i++) {
+                    for (int k = 0; k + 1 < bounds[i].length; k++) {
+                        long start = bounds[i][k];
+                        long end = bounds[i][k + 1];
+                        if (start < end) {
+                            FileHandler run = new FileHandler(files.get(i).getFileName() + " [bytes " + start + "-"
+                                    + end + "]", files.get(i).getFileChannel(), start, end, context.isMemoryMapped(),
+                                    RUN_BUFFER_SIZE);
+                            run.setQuiet(true); // О невалидных строках уже сообщено при поиске серий.
+                            run.setIndex(files.get(i).getIndex());
+                            runs.add(run);
+                            context.getMetrics().register(run.getMetrics());
+                            runInputs.add(context.createInput(run, files.get(i).getFileName(), true));
+                        }
+                    }
+                }
+                if (!runInputs.isEmpty()) {
+                    context.merge(runInputs.toArray(new MergeInput[0]));
+                }
+            }
+        } finally {
+            for (FileHandler run: runs) {
+                run.close();
+            }
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param files Обработчики несжатых входных файлов. Их счётчики регистрируются сразу.
+     */
+    public NaturalRunsMerge(MergeContext context, List<FileHandler> files) {
+        this.context = context;
+        this.files = files;
+        for (FileHandler file: files) {
+            context.getMetrics().register(file.getMetrics());
+        }
+    }
+}
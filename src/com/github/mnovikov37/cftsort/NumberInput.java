@@ -0,0 +1,69 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Входной поток целых чисел. Элементы хранятся в примитивных полях long -
+ * ни чтение, ни сравнение, ни запись чисел не создают объектов.
+ */
+public class NumberInput extends MergeInput {
+    protected final long minValue;  // Минимальное допустимое значение для типа данных
+    protected final long maxValue;  // Максимальное допустимое значение для типа данных
+    protected long current;         // Текущий элемент
+    protected long previous;        // Предыдущий элемент
+
+    public long getPrevious() { return previous; }
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        hasCurrent = file.nextLong(minValue, maxValue);
+        current = file.getNumber();
+        return hasCurrent;
+    }
+
+    @Override
+    public int compareTo(MergeInput other) {
+        return Long.compare(current, ((NumberInput) other).current);
+    }
+
+    @Override
+    public int compareToPrevious() {
+        return Long.compare(current, previous);
+    }
+
+    @Override
+    public Object getCurrentKey() {
+        return current;
+    }
+
+    @Override
+    public int compareToKey(Object key) {
+        return Long.compare(current, (Long) key);
+    }
+
+    @Override
+    public int compareToPreviousOf(MergeInput other) {
+        return Long.compare(current, ((NumberInput) other).previous);
+    }
+
+    @Override
+    public void writePreviousElement(OutputBuffer output) throws IOException {
+        output.writeLong(previous);
+    }
+
+    /**
+     * @param file Обработчик входного файла.
+     * @param dataType Тип данных: определяет диапазон допустимых значений.
+     */
+    public NumberInput(FileHandler file, DataType dataType) {
+        super(file);
+        if (dataType == DataType.INT) {
+            minValue = Integer.MIN_VALUE;
+            maxValue = Integer.MAX_VALUE;
+        } else {
+            minValue = Long.MIN_VALUE;
+            maxValue = Long.MAX_VALUE;
+        }
+    }
+}
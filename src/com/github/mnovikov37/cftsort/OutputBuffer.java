@@ -0,0 +1,272 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Буфер записи в выходной файл.
+ * Данные кодируются в байты прямо в многократно используемый буфер вне кучи
+ * и сбрасываются в канал выходного файла крупными блоками.
+ * Ни числа, ни строки при записи не создают промежуточных объектов.
+ */
+public class OutputBuffer {
+    public final static int DEFAULT_BUFFER_SIZE = 1 << 20;  // Размер буфера по умолчанию
+    private final static int MIN_BUFFER_SIZE = 1 << 10;     // Минимальный размер буфера
+    private final static int MAX_LONG_LENGTH = 20;          // Максимальная длина числа long в символах
+    private final static byte LINE_END = '\n';              // Признак конца строки
+
+    private final WritableByteChannel channel;  // Канал записи в выходной файл
+    private final boolean fsync;                // Сбрасывать данные на диск при закрытии
+    private final CharsetEncoder encoder;       // Кодировщик строк, не состоящих только из ASCII
+    private final ByteBuffer buffer;            // Буфер данных
+    private ByteBuffer source;                  // Буфер, из которого последний раз записывался фрагмент
+    private ByteBuffer sourceView;              // Копия-представление source со своими позицией и пределом
+    private long written;                       // Количество байт, сброшенных в канал
+    private long records;                       // Количество записанных строк
+    private long flushes;                       // Количество сбросов буфера
+    private long flushNanos;                    // Суммарное время сбросов буфера в наносекундах
+    private long maxFlushNanos;                 // Наибольшее время одного сброса буфера в наносекундах
+    private final OutputMetrics metrics;        // Опубликованные счётчики
+
+    /**
+     * @return Количество байт, записанных в выходной файл, включая ещё не сброшенные из буфера.
+     */
+    public long getWritten() { return written + buffer.position(); }
+
+    /**
+     * @return Количество записанных строк.
+     */
+    public long getRecords() { return records; }
+
+    public OutputMetrics getMetrics() { return metrics; }
+
+    /**
+     * Гарантирует наличие в буфере места под заданное количество байт, при необходимости сбрасывая буфер в канал.
+     * @param length Количество байт. Не больше размера буфера.
+     * @throws IOException При ошибке записи.
+     */
+    private void ensureCapacity(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    /**
+     * Сбрасывает содержимое буфера в канал.
+     * @throws IOException При ошибке записи.
+     */
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        buffer.clear();
+        long time = System.nanoTime() - start;
+        flushes++;
+        flushNanos += time;
+        maxFlushNanos = Math.max(maxFlushNanos, time);
+        metrics.update(records, written, flushes, flushNanos, maxFlushNanos);
+    }
+
+    /**
+     * Записывает целое число в десятичной записи.
+     * Цифры формируются с конца прямо в буфере.
+     * @param value Число.
+     * @throws IOException При ошибке записи.
+     */
+    public void writeLong(long value) throws IOException {
+        ensureCapacity(MAX_LONG_LENGTH);
+        // Работаем с отрицательным значением, чтобы корректно обработать Long.MIN_VALUE.
+        long rest = value < 0 ? value : -value;
+        int length = 0;
+        for (long digits = rest; digits != 0 || length == 0; digits /= 10) {
+            length++;
+        }
+        int position = buffer.position();
+        if (value < 0) {
+            buffer.put(position, (byte) '-');
+            length++;
+        }
+        int end = position + length;
+        int i = end;
+        do {
+            buffer.put(--i, (byte) ('0' - rest % 10));
+            rest /= 10;
+        } while (rest != 0);
+        buffer.position(end);
+    }
+
+    /**
+     * Записывает массив байт.
+     * @param bytes Массив байт.
+     * @param offset Смещение первого байта.
+     * @param length Количество байт.
+     * @throws IOException При ошибке записи.
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        int rest = length;
+        int from = offset;
+        while (rest > 0) {
+            ensureCapacity(1);
+            int count = Math.min(rest, buffer.remaining());
+            buffer.put(bytes, from, count);
+            from += count;
+            rest -= count;
+        }
+    }
+
+    /**
+     * Записывает фрагмент байтового буфера, не изменяя его позицию.
+     * Позволяет записывать строки прямо из буфера входного файла, в том числе отображённого в память.
+     * Фрагмент копируется через представление буфера, которое создаётся один раз для каждого нового
+     * буфера-источника, - запись строки не создаёт объектов.
+     * @param bytes Байтовый буфер.
+     * @param offset Позиция первого байта.
+     * @param length Количество байт.
+     * @throws IOException При ошибке записи.
+     */
+    public void writeBytes(ByteBuffer bytes, int offset, int length) throws IOException {
+        if (bytes != source) { // Считыватель сменил буфер - например, отобразил следующее окно файла.
+            source = bytes;
+            sourceView = bytes.duplicate();
+        }
+        int rest = length;
+        int from = offset;
+        while (rest > 0) {
+            ensureCapacity(1);
+            int count = Math.min(rest, buffer.remaining());
+            sourceView.limit(from + count).position(from);
+            buffer.put(sourceView);
+            from += count;
+            rest -= count;
+        }
+    }
+
+    /**
+     * Записывает строку в кодировке выходного файла.
+     * Символы ASCII записываются напрямую, остаток строки после первого не-ASCII символа
+     * кодируется кодировщиком прямо в буфер.
+     * @param s Строка.
+     * @throws IOException При ошибке записи.
+     */
+    public void writeString(String s) throws IOException {
+        int length = s.length();
+        int i = 0;
+        while (i < length) { // Быстрый путь: символы ASCII.
+            ensureCapacity(1);
+            int end = Math.min(length, i + buffer.remaining());
+            char c;
+            while (i < end && (c = s.charAt(i)) < 0x80) {
+                buffer.put((byte) c);
+                i++;
+            }
+            if (i < end) {
+                break;
+            }
+        }
+        if (i < length) {
+            CharBuffer chars = CharBuffer.wrap(s, i, length);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, buffer, true);
+                if (result.isOverflow()) {
+                    flush();
+                }
+            } while (result.isOverflow());
+            while (encoder.flush(buffer).isOverflow()) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Записывает признак конца строки.
+     * @throws IOException При ошибке записи.
+     */
+    public void writeLineEnd() throws IOException {
+        ensureCapacity(1);
+        buffer.put(LINE_END);
+        records++;
+    }
+
+    /**
+     * Дописывает содержимое файла целиком, передавая данные между каналами средствами операционной системы.
+     * @param source Канал файла.
+     * @param records Количество строк в файле - для счётчиков.
+     * @throws IOException При ошибке чтения или записи.
+     */
+    public void transferFrom(FileChannel source, long records) throws IOException {
+        flush();
+        long size = source.size();
+        for (long position = 0; position < size; ) {
+            long count = source.transferTo(position, size - position, channel);
+            position += count;
+            written += count;
+        }
+        this.records += records;
+        metrics.update(this.records, written, flushes, flushNanos, maxFlushNanos);
+    }
+
+    /**
+     * Сбрасывает буфер в канал и, если канал - файл, принудительно сбрасывает данные на диск -
+     * например, перед сохранением контрольной точки (см. Checkpoint).
+     * @throws IOException При ошибке записи.
+     */
+    public void commit() throws IOException {
+        flush();
+        if (channel instanceof FileChannel) {
+            ((FileChannel) channel).force(false);
+        }
+    }
+
+    /**
+     * Сбрасывает буфер и закрывает канал записи.
+     * При необходимости данные принудительно сбрасываются на диск.
+     * @throws IOException При ошибке записи или закрытия.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+            if (fsync && channel instanceof FileChannel) {
+                ((FileChannel) channel).force(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @param channel Канал записи в выходной файл.
+     * @param bufferSize Размер буфера в байтах.
+     * @param fsync true - при закрытии данные принудительно сбрасываются на диск.
+     */
+    public OutputBuffer(WritableByteChannel channel, int bufferSize, boolean fsync) {
+        this(channel, bufferSize, fsync, Charset.defaultCharset());
+    }
+
+    /**
+     * @param channel Канал записи.
+     * @param bufferSize Размер буфера в байтах.
+     * @param fsync true - при закрытии данные принудительно сбрасываются на диск.
+     * @param charset Кодировка строк.
+     */
+    public OutputBuffer(WritableByteChannel channel, int bufferSize, boolean fsync, Charset charset) {
+        this.channel = channel;
+        this.fsync = fsync;
+        this.encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MIN_BUFFER_SIZE));
+        this.written = 0;
+        this.metrics = new OutputMetrics();
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Счётчики выходного файла.
+ * Буфер записи считает строки в обычном поле и публикует счётчики сюда при каждом сбросе буфера
+ * (см. OutputBuffer.flush()) - так же, как InputMetrics для входных файлов.
+ */
+public class OutputMetrics {
+    private volatile long records;          // Количество записанных элементов
+    private volatile long bytes;            // Количество записанных байт
+    private volatile long flushes;          // Количество сбросов буфера в канал
+    private volatile long flushNanos;       // Суммарное время сбросов буфера в наносекундах
+    private volatile long maxFlushNanos;    // Наибольшее время одного сброса буфера в наносекундах
+
+    public long getRecords() { return records; }
+    public long getBytes() { return bytes; }
+    public long getFlushes() { return flushes; }
+    public long getFlushNanos() { return flushNanos; }
+    public long getMaxFlushNanos() { return maxFlushNanos; }
+
+    /**
+     * Публикует текущие значения счётчиков.
+     * Вызывается только потоком, пишущим в буфер.
+     */
+    void update(long records, long bytes, long flushes, long flushNanos, long maxFlushNanos) {
+        this.records = records;
+        this.bytes = bytes;
+        this.flushes = flushes;
+        this.flushNanos = flushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Параллельное иерархическое слияние.
+ * Входные потоки делятся на группы подряд идущих файлов, каждая группа сливается в своём потоке выполнения
+ * в промежуточный поток в памяти ограниченного объёма, затем промежуточные потоки сливаются в выходной файл.
+ * Из равных элементов, как и при последовательном слиянии, первым выводится элемент файла с большим номером:
+ * группы состоят из подряд идущих файлов, поэтому этот порядок сохраняется и внутри групп, и между ними.
+ * Строки передаются через промежуточные потоки в кодировке UTF-8, поэтому не искажаются при перекодировании.
+ * Группы равных элементов обрабатываются только в итоговом слиянии: равные элементы могут быть в разных группах.
+ */
+public class ParallelMerge implements MergeMode {
+    private final static int GROUP_CHUNKS = 4;     // Количество блоков промежуточного потока слияния
+
+    private final MergeContext context;             // Окружение слияния
+    private final MergeInput[] inputs;              // Входные потоки слияния
+    private final int groups;                       // Количество групп
+
+    @Override
+    public void merge() throws IOException {
+        ExecutorService executor = MergeContext.createExecutor(groups, "cftsort-merge");
+        List<Future<?>> tasks = new ArrayList<>();
+        FileHandler[] streams = new FileHandler[groups];
+        MergeInput[] streamInputs = new MergeInput[groups];
+        try {
+            for (int g = 0; g < groups; g++) {
+                MergeInput[] group = Arrays.copyOfRange(inputs, g * inputs.length / groups,
+                        (g + 1) * inputs.length / groups);
+                ChunkPipe pipe = new ChunkPipe(MergeContext.GROUP_CHUNK_SIZE, GROUP_CHUNKS);
+                OutputBuffer groupOutput = new OutputBuffer(pipe.getSink(), MergeContext.GROUP_CHUNK_SIZE, false,
+                        StandardCharsets.UTF_8);
+                tasks.add(executor.submit(() -> {
+                    try {
+                        context.createMerger(group, groupOutput, false).merge();
+                    } finally {
+                        groupOutput.close(); // Признак конца промежуточного потока.
+                    }
+                    return null;
+                }));
+                streams[g] = new FileHandler("merge group " + (g + 1), pipe.getSource(), StandardCharsets.UTF_8);
+                streamInputs[g] = context.createInput(streams[g]);
+            }
+            context.createMerger(streamInputs, context.getOutputBuffer(), true).merge();
+        } finally {
+            for (FileHandler stream: streams) { // Прерываем группы, если итоговое слияние не завершено.
+                if (stream != null) {
+                    stream.close();
+                }
+            }
+            MergeContext.shutdown(executor);
+        }
+        for (Future<?> task: tasks) { // Ошибки программы в группах не должны теряться.
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (!(e.getCause() instanceof IOException)) {
+                    throw new IllegalStateException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param inputs Входные потоки слияния.
+     * @param groups Количество групп.
+     */
+    public ParallelMerge(MergeContext context, MergeInput[] inputs, int groups) {
+        this.context = context;
+        this.inputs = inputs;
+        this.groups = groups;
+    }
+}
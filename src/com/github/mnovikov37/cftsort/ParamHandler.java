@@ -12,10 +12,80 @@ public class ParamHandler {
     private final static String SORT_TYPE_ASC = "-a";       // команда: сортировка по возрастанию
     private final static String SORT_TYPE_DESC = "-d";      // команда: сортировка по убыванию
     private final static String DATA_TYPE_INT = "-i";       // команда: тип данных - целые числа
+    private final static String DATA_TYPE_LONG = "-l";      // команда: тип данных - длинные целые числа
     private final static String DATA_TYPE_STRING = "-s";    // команда: тип данных - строки
+    private final static String MEMORY_MAPPED = "--mmap";   // команда: отображение входных файлов в память
+    private final static String OUTPUT_BUFFER = "--output-buffer"; // команда: размер буфера записи
+    private final static String FSYNC = "--fsync";          // команда: сброс выходного файла на диск
+    private final static String GZIP = "--gzip";            // команда: сжатие выходного файла
+    private final static String PREFETCH = "--prefetch";    // команда: упреждающее чтение входных файлов
+    private final static String THREADS = "--threads";      // команда: количество потоков слияния
+    private final static int MAX_THREADS = 1024;            // Максимальное количество потоков слияния
+    private final static String PARTITION = "--partition";  // команда: параллельное слияние по диапазонам ключей
+    private final static String NATURAL_RUNS = "--natural-runs"; // команда: слияние естественных серий
+    private final static String UNSORTED = "--unsorted";    // команда: внешняя сортировка неотсортированных файлов
+    private final static String MEMORY = "--memory";        // команда: бюджет памяти внешней сортировки
+    private final static String TEMP_DIR = "--temp-dir";    // команда: каталог временных файлов
+    private final static String FAN_IN = "--fan-in";        // команда: наибольшее количество сливаемых файлов
+    private final static String PRESCAN = "--prescan";      // команда: предварительный просмотр входных файлов
+    private final static int MIN_FAN_IN = 2;                // Наименьшее количество одновременно сливаемых файлов
+    private final static int DEFAULT_FAN_IN = 512;          // Количество одновременно сливаемых файлов по умолчанию
+    private final static String PROGRESS = "--progress";    // команда: интервал вывода прогресса
+    private final static String METRICS = "--metrics";      // команда: файл итоговой сводки счётчиков
+    private final static String MAX_WARNINGS = "--max-warnings";    // команда: ограничение количества предупреждений
+    private final static String SAMPLE_WARNINGS = "--sample-warnings"; // команда: прореживание предупреждений
+    private final static String LOG = "--log";              // команда: файл диагностических сообщений
+    private final static String COLLATION = "--collation";  // команда: правило сравнения строк
+    private final static String KEY = "--key";              // команда: ключевое поле записей
+    private final static String DELIMITER = "--delimiter";  // команда: разделитель полей записей
+    private final static String UNIQUE = "--unique";        // команда: только первый из равных элементов
+    private final static String COUNT = "--count";          // команда: количество равных элементов
+    private final static String SUM = "--sum";              // команда: сумма поля значения равных элементов
+    private final static String CHECKPOINT = "--checkpoint"; // команда: файл контрольной точки слияния
+    private final static String CHECKPOINT_INTERVAL = "--checkpoint-interval"; // команда: интервал контрольных точек
+    private final static long DEFAULT_CHECKPOINT_INTERVAL = 60; // Интервал контрольных точек по умолчанию в секундах
+    private final static String RESUME = "--resume";        // команда: возобновление слияния с контрольной точки
+    private final static String FROM = "--from";            // команда: нижняя граница диапазона ключей
+    private final static String TO = "--to";                // команда: верхняя граница диапазона ключей
+    private final static String LIMIT = "--limit";          // команда: наибольшее количество строк результата
+    private final static String LOW_LATENCY = "--low-latency"; // команда: запись результата без задержки
+    private final static char KEY_TYPE_SEPARATOR = ':';     // Разделитель номера и типа ключевого поля: 2:i
 
     private SortType sortType;                      // Тип сортировки: по возрастанию либо по убыванию
-    private DataType dataType;                      // Тип данных: целые числа либо строки
+    private DataType dataType;                      // Тип данных: целые числа (32 или 64 бита) либо строки
+    private boolean memoryMapped;                   // Входные файлы отображаются в память
+    private int outputBufferSize;                   // Размер буфера записи в выходной файл
+    private boolean fsync;                          // Выходной файл сбрасывается на диск по завершении
+    private boolean gzip;                           // Выходной файл сжимается в формате gzip
+    private boolean prefetch;                       // Входные файлы читаются с упреждением в фоновых потоках
+    private int threads;                            // Количество потоков параллельного слияния
+    private boolean partitioned;                    // Параллельное слияние по диапазонам ключей
+    private boolean naturalRuns;                    // Нарушение порядка начинает новую естественную серию
+    private boolean unsorted;                       // Входные файлы не отсортированы - внешняя сортировка
+    private long memory;                            // Бюджет памяти внешней сортировки в байтах
+    private String tempDirectory;                   // Каталог временных файлов, null - каталог выходного файла
+    private int fanIn;                              // Наибольшее количество одновременно открытых сливаемых файлов
+    private boolean prescan;                        // Входные файлы предварительно просматриваются и индексируются
+    private long progressInterval;                  // Интервал вывода прогресса в секундах, 0 - без прогресса
+    private String metricsFileName;                 // Файл итоговой сводки счётчиков, null - без сводки
+    private long maxWarnings;                       // Наибольшее количество предупреждений одной причины в файле
+    private long sampleWarnings;                    // Выводится каждое sampleWarnings-е предупреждение
+    private String logFileName;                     // Файл диагностических сообщений, null - стандартный вывод
+    private Collation collation;                    // Правило сравнения строк
+    private List<Integer> keyColumns;               // Номера ключевых полей, начиная с 0
+    private List<DataType> keyTypes;                // Типы ключевых полей, null - тип данных из -i, -l, -s
+    private char delimiter;                         // Разделитель полей записей
+    private KeyFields keyFields;                    // Ключевые поля записей, null - элементы сравниваются целиком
+    private boolean unique;                         // Из группы равных элементов записывается только первый
+    private boolean count;                          // К элементу группы дописывается количество элементов
+    private int sumColumn;                          // Номер суммируемого поля, начиная с 0, -1 - сумма не нужна
+    private String checkpointFileName;              // Файл контрольной точки, null - контрольные точки не сохраняются
+    private long checkpointInterval;                // Интервал между контрольными точками в секундах
+    private boolean resume;                         // Слияние возобновляется с контрольной точки
+    private String rangeFrom;                       // Нижняя граница диапазона ключей, null - без границы
+    private String rangeTo;                         // Верхняя граница диапазона ключей, null - без границы
+    private long limit;                             // Наибольшее количество строк выходного файла
+    private boolean lowLatency;                     // Записанное передаётся получателю до ожидания входных данных
     private String outputFileName;                  // Имя выходного файла
     private List<String> inputFileNames;            // Имена входных файлов
     private List<String> warningMessages;           // Сообщения об ошибках уровня "предупреждение"
@@ -23,6 +93,35 @@ public class ParamHandler {
 
     public SortType getSortType() { return sortType; }
     public DataType getDataType() { return dataType; }
+    public boolean isMemoryMapped() { return memoryMapped; }
+    public int getOutputBufferSize() { return outputBufferSize; }
+    public boolean isFsync() { return fsync; }
+    public boolean isGzip() { return gzip; }
+    public boolean isPrefetch() { return prefetch; }
+    public int getThreads() { return threads; }
+    public boolean isPartitioned() { return partitioned; }
+    public boolean isNaturalRuns() { return naturalRuns; }
+    public boolean isUnsorted() { return unsorted; }
+    public long getMemory() { return memory; }
+    public String getTempDirectory() { return tempDirectory; }
+    public int getFanIn() { return fanIn; }
+    public boolean isPrescan() { return prescan; }
+    public long getProgressInterval() { return progressInterval; }
+    public String getMetricsFileName() { return metricsFileName; }
+    public long getMaxWarnings() { return maxWarnings; }
+    public long getSampleWarnings() { return sampleWarnings; }
+    public String getLogFileName() { return logFileName; }
+    public Collation getCollation() { return collation; }
+    public KeyFields getKeyFields() { return keyFields; }
+    public boolean isUnique() { return unique; }
+    public boolean isCount() { return count; }
+    public String getCheckpointFileName() { return checkpointFileName; }
+    public long getCheckpointInterval() { return checkpointInterval; }
+    public boolean isResume() { return resume; }
+    public String getRangeFrom() { return rangeFrom; }
+    public String getRangeTo() { return rangeTo; }
+    public long getLimit() { return limit; }
+    public boolean isLowLatency() { return lowLatency; }
     public String getOutputFileName() { return outputFileName; }
     public List<String> getInputFileNames() { return inputFileNames; }
     public List<String> getWarningMessages() { return warningMessages; }
@@ -30,17 +129,96 @@ public class ParamHandler {
 
     /**
      * Проверяет, является ли строка командой. То есть начинается ли с символа PARAMETER_FLAG.
+     * Одиночный символ PARAMETER_FLAG - не команда, а имя стандартного ввода либо вывода.
      * @param parameter Параметр командной строки.
      * @return true, если параметр команда, false, если параметр не является командой.
      */
     private boolean isOption(String parameter) {
         boolean result = false;
-        if (parameter.length() > 0 && parameter.charAt(0) == PARAMETER_FLAG) {
+        if (parameter.length() > 1 && parameter.charAt(0) == PARAMETER_FLAG) {
             result = true;
         }
         return result;
     }
 
+    /**
+     * Разбирает положительное целое число.
+     * @param value Значение параметра.
+     * @return Число, -1, если значение некорректно.
+     */
+    private long parseCount(String value) {
+        long result;
+        try {
+            result = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            result = -1;
+        }
+        return result > 0 ? result : -1;
+    }
+
+    /**
+     * Разбирает размер в байтах. Допускаются суффиксы K, M, G (килобайты, мегабайты, гигабайты).
+     * @param value Значение параметра.
+     * @return Размер в байтах, -1, если значение некорректно.
+     */
+    private long parseSize(String value) {
+        long result = -1;
+        if (value.length() > 0) {
+            long multiplier = 1;
+            String digits = value;
+            switch (Character.toUpperCase(value.charAt(value.length() - 1))) {
+                case 'K' -> multiplier = 1L << 10;
+                case 'M' -> multiplier = 1L << 20;
+                case 'G' -> multiplier = 1L << 30;
+            }
+            if (multiplier > 1) {
+                digits = value.substring(0, value.length() - 1);
+            }
+            try {
+                long number = Long.parseLong(digits);
+                if (number > 0 && number <= Long.MAX_VALUE / multiplier) {
+                    result = number * multiplier;
+                }
+            } catch (NumberFormatException e) {
+                result = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Разбирает описание ключевого поля: номер поля, начиная с 1, и, через двоеточие, тип данных поля -
+     * i, l либо s. Без типа используется тип данных, заданный -i, -l или -s.
+     * @param value Значение параметра, например 2 или 2:i.
+     * @return true, если описание корректно и поле добавлено.
+     */
+    private boolean parseKey(String value) {
+        int separator = value.indexOf(KEY_TYPE_SEPARATOR);
+        long column = parseCount(separator < 0 ? value : value.substring(0, separator));
+        DataType type = separator < 0 ? null : DataType.forCommand(PARAMETER_FLAG + value.substring(separator + 1));
+        boolean result = column > 0 && column <= Integer.MAX_VALUE && (separator < 0 || type != null);
+        if (result) {
+            keyColumns.add((int) column - 1);
+            keyTypes.add(type);
+        }
+        return result;
+    }
+
+    /**
+     * Разбирает разделитель полей: один символ либо \t (tab) - табуляция.
+     * @param value Значение параметра.
+     * @return Разделитель, 0 - если значение некорректно.
+     */
+    private static char parseDelimiter(String value) {
+        char result = 0;
+        if (value.equals("\\t") || value.equals("tab")) {
+            result = '\t';
+        } else if (value.length() == 1) {
+            result = value.charAt(0);
+        }
+        return result;
+    }
+
     /**
      * Добавляет сообщение к списку сообщений.
      * @param messages Список сообщений.
@@ -60,7 +238,21 @@ public class ParamHandler {
         inputFileNames = new ArrayList<>();
         warningMessages = new ArrayList<>();
         criticalErrorMessages = new ArrayList<>();
-        for (String arg : args) {
+        outputBufferSize = OutputBuffer.DEFAULT_BUFFER_SIZE;
+        threads = 1;
+        memory = ExternalSorter.DEFAULT_MEMORY;
+        fanIn = DEFAULT_FAN_IN;
+        maxWarnings = Long.MAX_VALUE;
+        sampleWarnings = 1;
+        collation = Collation.ORDINAL;
+        keyColumns = new ArrayList<>();
+        keyTypes = new ArrayList<>();
+        delimiter = KeyFields.DEFAULT_DELIMITER;
+        sumColumn = -1;
+        checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        limit = Long.MAX_VALUE;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
             StringBuilder errorMessageBuilder = new StringBuilder();
             // Обработка команд
             if (isOption(arg)) {
@@ -74,7 +266,7 @@ public class ParamHandler {
                                     .append(" according to the first parameter");
                         }
                     }
-                    case DATA_TYPE_INT, DATA_TYPE_STRING -> {
+                    case DATA_TYPE_INT, DATA_TYPE_LONG, DATA_TYPE_STRING -> {
                         if (dataType == null) {
                             dataType = DataType.forCommand(arg);
                         } else { // Если тип данных указан более одного раза, берётся тот, что был указан первым.
@@ -83,6 +275,181 @@ public class ParamHandler {
                                     .append(" according to the first parameter");
                         }
                     }
+                    case MEMORY_MAPPED -> memoryMapped = true;
+                    case OUTPUT_BUFFER -> { // Значение команды - следующий аргумент.
+                        long size = i + 1 < args.length ? parseSize(args[++i]) : -1;
+                        if (size > 0 && size <= Integer.MAX_VALUE) {
+                            outputBufferSize = (int) size;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case FSYNC -> fsync = true;
+                    case GZIP -> gzip = true;
+                    case PREFETCH -> prefetch = true;
+                    case PARTITION -> partitioned = true;
+                    case NATURAL_RUNS -> naturalRuns = true;
+                    case UNSORTED -> unsorted = true;
+                    case PRESCAN -> prescan = true;
+                    case MEMORY -> { // Значение команды - следующий аргумент.
+                        long size = i + 1 < args.length ? parseSize(args[++i]) : -1;
+                        if (size > 0) {
+                            memory = size;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case PROGRESS -> { // Значение команды - следующий аргумент.
+                        long interval = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (interval > 0) {
+                            progressInterval = interval;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - progress will not be shown");
+                        }
+                    }
+                    case METRICS -> { // Значение команды - следующий аргумент.
+                        if (i + 1 < args.length) {
+                            metricsFileName = args[++i];
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - metrics will not be saved");
+                        }
+                    }
+                    case MAX_WARNINGS -> { // Значение команды - следующий аргумент, 0 - только итоговая сводка.
+                        String value = i + 1 < args.length ? args[++i] : "";
+                        long count = value.equals("0") ? 0 : parseCount(value);
+                        if (count >= 0) {
+                            maxWarnings = count;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - all warnings will be shown");
+                        }
+                    }
+                    case SAMPLE_WARNINGS -> { // Значение команды - следующий аргумент.
+                        long count = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (count > 0) {
+                            sampleWarnings = count;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - all warnings will be shown");
+                        }
+                    }
+                    case COLLATION -> { // Значение команды - следующий аргумент.
+                        Collation value = i + 1 < args.length ? Collation.forName(args[++i]) : null;
+                        if (value != null) {
+                            collation = value;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case KEY -> { // Значение команды - следующий аргумент. Команда может повторяться.
+                        if (!(i + 1 < args.length && parseKey(args[++i]))) {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - will be ignored");
+                        }
+                    }
+                    case DELIMITER -> { // Значение команды - следующий аргумент.
+                        char value = i + 1 < args.length ? parseDelimiter(args[++i]) : 0;
+                        if (value != 0) {
+                            delimiter = value;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case UNIQUE -> unique = true;
+                    case COUNT -> count = true;
+                    case SUM -> { // Значение команды - следующий аргумент.
+                        long column = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (column > 0 && column <= Integer.MAX_VALUE) {
+                            sumColumn = (int) column - 1;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - will be ignored");
+                        }
+                    }
+                    case CHECKPOINT -> { // Значение команды - следующий аргумент.
+                        if (i + 1 < args.length) {
+                            checkpointFileName = args[++i];
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - checkpoints will not be saved");
+                        }
+                    }
+                    case CHECKPOINT_INTERVAL -> { // Значение команды - следующий аргумент.
+                        long interval = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (interval > 0) {
+                            checkpointInterval = interval;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case RESUME -> resume = true;
+                    case LOW_LATENCY -> lowLatency = true;
+                    case FROM -> { // Значение команды - следующий аргумент, в том числе начинающийся с минуса.
+                        if (i + 1 < args.length) {
+                            rangeFrom = args[++i];
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - will be ignored");
+                        }
+                    }
+                    case TO -> { // Значение команды - следующий аргумент, в том числе начинающийся с минуса.
+                        if (i + 1 < args.length) {
+                            rangeTo = args[++i];
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - will be ignored");
+                        }
+                    }
+                    case LIMIT -> { // Значение команды - следующий аргумент.
+                        long count = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (count > 0) {
+                            limit = count;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - will be ignored");
+                        }
+                    }
+                    case LOG -> { // Значение команды - следующий аргумент.
+                        if (i + 1 < args.length) {
+                            logFileName = args[++i];
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - messages will be printed to console");
+                        }
+                    }
+                    case TEMP_DIR -> { // Значение команды - следующий аргумент.
+                        if (i + 1 < args.length) {
+                            tempDirectory = args[++i];
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case FAN_IN -> { // Значение команды - следующий аргумент.
+                        long count = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (count >= MIN_FAN_IN && count <= Integer.MAX_VALUE) {
+                            fanIn = (int) count;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
+                    case THREADS -> { // Значение команды - следующий аргумент.
+                        long count = i + 1 < args.length ? parseCount(args[++i]) : -1;
+                        if (count > 0 && count <= MAX_THREADS) {
+                            threads = (int) count;
+                        } else {
+                            errorMessageBuilder.append(ErrorMessage.INVALID_PARAM_VALUE.getMessage())
+                                    .append(" \"").append(arg).append("\" - default value will be used");
+                        }
+                    }
                     default -> { // Неизвестные команды игнорируются.
                         errorMessageBuilder.append(ErrorMessage.UNKNOWN_PARAM.getMessage())
                                 .append(" \"").append(arg).append("\" - will be ignored");
@@ -91,7 +458,8 @@ public class ParamHandler {
             } else if (outputFileName == null) { // Обработка имени выходного файла.
                 outputFileName = arg;
             } else { // Если имя выходного файла уже есть, далее следуют имена входных файлов.
-                if (!(arg.equals(outputFileName))) {
+                // "-" в качестве выходного файла - стандартный вывод, в качестве входного - стандартный ввод.
+                if (!(arg.equals(outputFileName)) || arg.equals(StreamChannel.STANDARD)) {
                     if (inputFileNames.contains(arg)) {
                         // Если имя выходного файла указано более одного раза, то такой файл включается в сортировку
                         // столько раз, сколько он был указан - так, как будто это несколько разных файлов.
@@ -127,5 +495,84 @@ public class ParamHandler {
         if (inputFileNames.isEmpty()) {
             addToMessages(criticalErrorMessages, ErrorMessage.INPUT_FILES_NOT_SPECIFIED.getMessage());
         }
+        if (!keyColumns.isEmpty() && dataType != null) { // Поля без типа получают тип данных из -i, -l, -s.
+            int[] columns = new int[keyColumns.size()];
+            DataType[] types = new DataType[keyColumns.size()];
+            for (int k = 0; k < columns.length; k++) {
+                columns[k] = keyColumns.get(k);
+                types[k] = keyTypes.get(k) != null ? keyTypes.get(k) : dataType;
+            }
+            keyFields = new KeyFields(delimiter, columns, types, collation, sumColumn);
+        }
+        if (keyFields == null && sumColumn >= 0) { // Суммируется поле записи - без ключевых полей полей нет.
+            addToMessages(warningMessages, "Param \"" + SUM + "\" is used only with \"" + KEY + "\" - ignored");
+        }
+        if (resume && checkpointFileName == null) { // Без файла контрольной точки возобновлять нечего.
+            addToMessages(warningMessages, "Param \"" + RESUME + "\" is used only with \"" + CHECKPOINT
+                    + "\" - ignored");
+            resume = false;
+        }
+        // Диапазоны ключей сливаются независимо - первые строки результата не известны, пока не слиты все.
+        if (partitioned && threads > 1 && limit < Long.MAX_VALUE) {
+            addToMessages(warningMessages, PARTITION + " is not available with " + LIMIT + " - ignored");
+            partitioned = false;
+        }
+        // Сбросить буфер записи перед ожиданием данных может только поток, который в него пишет.
+        if (lowLatency && threads > 1) {
+            addToMessages(warningMessages, THREADS + " is not available with " + LOW_LATENCY + " - ignored");
+            threads = 1;
+        }
+        if (lowLatency && prefetch) { // Упреждающее чтение ждёт данных в фоне.
+            addToMessages(warningMessages, PREFETCH + " is not available with " + LOW_LATENCY + " - ignored");
+            prefetch = false;
+        }
+    }
+
+    /**
+     * Проверяет совместимость режимов работы со входными файлами - один раз, когда входные файлы открыты,
+     * до выбора режима слияния (см. Sorter). Несовместимые режимы отключаются с предупреждением,
+     * предупреждения выводятся сразу. После проверки параметры описывают режим, который будет выполнен.
+     * @param seekable true - все входные файлы несжатые и не потоковые: их фрагменты читаются по смещениям.
+     * @param deferred true - входных файлов больше --fan-in, они открываются по мере каскадного слияния.
+     * @return Сообщение о критической ошибке, null, если ошибок нет.
+     */
+    public String checkInputs(boolean seekable, boolean deferred) {
+        String result = null;
+        // Контрольные точки - только при последовательном слиянии несжатых файлов, открытых одновременно,
+        // в несжатый выходной файл.
+        if (checkpointFileName != null && (gzip || unsorted || naturalRuns || (partitioned && threads > 1)
+                || deferred || !seekable || StreamChannel.STANDARD.equals(outputFileName))) {
+            if (resume) {
+                result = RESUME + " is not available for " + UNSORTED + ", " + NATURAL_RUNS + ", " + PARTITION
+                        + ", " + GZIP + ", compressed and streamed input files, standard output "
+                        + "and more input files than " + FAN_IN;
+            } else {
+                Diagnostics.message(ErrorLevel.WARNING, CHECKPOINT + " is not available for " + UNSORTED + ", "
+                        + NATURAL_RUNS + ", " + PARTITION + ", " + GZIP + ", compressed and streamed input files, "
+                        + "standard output and more input files than " + FAN_IN + " - ignored");
+            }
+            checkpointFileName = null;
+            resume = false;
+        }
+        // Фрагменты файлов читаются по смещениям - это невозможно для сжатых файлов.
+        if (!seekable && (naturalRuns || (partitioned && threads > 1))) {
+            Diagnostics.message(ErrorLevel.WARNING, NATURAL_RUNS + " and " + PARTITION
+                    + " are not available for compressed and streamed input files - ignored");
+            naturalRuns = false;
+            partitioned = false;
+        }
+        // Файлы, не открытые заранее, сливаются каскадно - остальные режимы требуют всех файлов сразу.
+        if (deferred && !unsorted && (naturalRuns || (partitioned && threads > 1))) {
+            Diagnostics.message(ErrorLevel.WARNING, NATURAL_RUNS + " and " + PARTITION
+                    + " are not available for more input files than " + FAN_IN + " - ignored");
+            naturalRuns = false;
+            partitioned = false;
+        }
+        if (prescan && (unsorted || deferred)) {
+            Diagnostics.message(ErrorLevel.WARNING, PRESCAN + " is not available for " + UNSORTED
+                    + " and more input files than " + FAN_IN + " - ignored");
+            prescan = false;
+        }
+        return result;
     }
 }
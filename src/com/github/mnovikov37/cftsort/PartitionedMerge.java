@@ -0,0 +1,140 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Параллельное слияние по диапазонам ключей.
+ * Входные файлы разбиваются на диапазоны ключей (см. Partitioner), каждый диапазон сливается независимо
+ * в своём потоке выполнения: первый - прямо в выходной файл, остальные - во временные файлы-сегменты
+ * рядом с выходным файлом. По завершении сегменты дописываются в выходной файл по порядку.
+ * Нарушение порядка сортировки во входном файле исключает из слияния только остаток его фрагмента
+ * в пределах диапазона, номера строк в предупреждениях отсчитываются от начала фрагмента.
+ * Равные элементы всегда попадают в один диапазон, поэтому группы равных элементов обрабатываются по диапазонам.
+ */
+public class PartitionedMerge implements MergeMode {
+    private final MergeContext context;     // Окружение слияния
+    private final List<FileHandler> files;  // Обработчики несжатых входных файлов
+    private final int partitions;           // Количество диапазонов
+
+    /**
+     * Сливает один диапазон ключей: из каждого файла берётся его фрагмент, относящийся к диапазону.
+     * @param bounds Границы диапазонов в файлах.
+     * @param partition Номер диапазона.
+     * @param bufferSize Начальный размер буфера чтения фрагмента файла.
+     * @param output Буфер записи результата.
+     * @throws IOException При ошибке записи результата.
+     */
+    private void mergePartition(long[][] bounds, int partition, int bufferSize, OutputBuffer output)
+            throws IOException {
+        List<FileHandler> parts = new ArrayList<>();
+        List<MergeInput> partInputs = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            long start = bounds[i][partition];
+            long end = bounds[i][partition + 1];
+            if (start < end) {
+                FileHandler part = new FileHandler(files.get(i).getFileName() + " [bytes " + start + "-" + end + "]",
+                        files.get(i).getFileChannel(), start, end, context.isMemoryMapped(), bufferSize);
+                part.setIndex(files.get(i).getIndex());
+                parts.add(part);
+                context.getMetrics().register(part.getMetrics());
+                partInputs.add(context.createInput(part, files.get(i).getFileName(), true));
+            }
+        }
+        try {
+            if (!partInputs.isEmpty()) {
+                context.createMerger(partInputs.toArray(new MergeInput[0]), output, true).merge();
+            }
+        } finally {
+            for (FileHandler part: parts) {
+                part.close();
+            }
+        }
+    }
+
+    @Override
+    public void merge() throws IOException {
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = files.get(i).getFileChannel().size();
+        }
+        Partitioner partitioner = new Partitioner(files, sizes, context::createInput, context.getSortType());
+        InputIndex[] indexes = new InputIndex[files.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = files.get(i).getIndex();
+        }
+        partitioner.setIndexes(indexes);
+        if (context.getLowerKey() != null || context.getUpperKey() != null) { // Разбивается только --from/--to.
+            partitioner.setRange(context.getLowerKey(), context.getUpperKey());
+        }
+        long[][] bounds = partitioner.split(partitions);
+        // Буферы чтения фрагментов всех файлов во всех диапазонах, сливаемых одновременно, делят бюджет памяти.
+        int bufferSize = (int) Math.max(MergeContext.MIN_READ_BUFFER_SIZE, Math.min(MergeContext.GROUP_CHUNK_SIZE,
+                context.getMemory() / Math.max(1, (long) files.size() * partitions)));
+
+        Path directory = Paths.get(context.getOutputFileName()).toAbsolutePath().getParent();
+        Path[] segments = new Path[partitions];
+        long[] segmentRecords = new long[partitions]; // Количество элементов в сегментах - для счётчиков
+        ExecutorService executor = MergeContext.createExecutor(partitions, "cftsort-partition");
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (int q = 0; q < partitions; q++) {
+                int partition = q;
+                if (q == 0) {
+                    tasks.add(executor.submit(() -> {
+                        mergePartition(bounds, partition, bufferSize, context.getOutputBuffer());
+                        return null;
+                    }));
+                } else {
+                    segments[q] = Files.createTempFile(directory, "cftsort", ".part");
+                    Path segment = segments[q];
+                    tasks.add(executor.submit(() -> {
+                        OutputBuffer segmentOutput = new OutputBuffer(FileChannel.open(segment,
+                                StandardOpenOption.WRITE), MergeContext.GROUP_CHUNK_SIZE, false);
+                        try {
+                            mergePartition(bounds, partition, bufferSize, segmentOutput);
+                        } finally {
+                            segmentOutput.close();
+                            segmentRecords[partition] = segmentOutput.getRecords();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> task: tasks) {
+                MergeContext.await(task);
+            }
+            for (int q = 1; q < partitions; q++) {
+                try (FileChannel segment = FileChannel.open(segments[q], StandardOpenOption.READ)) {
+                    context.getOutputBuffer().transferFrom(segment, segmentRecords[q]);
+                }
+            }
+        } finally {
+            MergeContext.shutdown(executor);
+            for (Path segment: segments) {
+                if (segment != null) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param files Обработчики несжатых входных файлов. Счётчики регистрируются по фрагментам файлов.
+     * @param partitions Количество диапазонов.
+     */
+    public PartitionedMerge(MergeContext context, List<FileHandler> files, int partitions) {
+        this.context = context;
+        this.files = files;
+        this.partitions = partitions;
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Разбиение отсортированных входных файлов на диапазоны ключей для независимого параллельного слияния.
+ * Из каждого файла выбираются образцы ключей, по ним определяются разделители диапазонов,
+ * затем в каждом файле двоичным поиском по смещениям в байтах находятся границы диапазонов.
+ * Все элементы с равными ключами попадают в один диапазон, поэтому результат слияния диапазонов
+ * совпадает с результатом слияния файлов целиком, если данные во входных файлах отсортированы.
+ * Тем же двоичным поиском находятся границы диапазона ключей --from/--to в файлах (см. seek(), setRange()).
+ */
+public class Partitioner {
+    private final static int PROBE_BUFFER_SIZE = 1 << 12;   // Начальный размер буфера пробного чтения
+    private final static int SAMPLES_PER_PARTITION = 8;     // Количество образцов ключей на диапазон в каждом файле
+
+    private final List<FileHandler> files;                      // Обработчики входных файлов
+    private final long[] sizes;                                 // Размеры входных файлов
+    private final Function<FileHandler, MergeInput> inputFactory; // Создание входного потока для разбора элементов
+    private final SortType sortType;                            // Порядок сортировки
+    private InputIndex[] indexes;                               // Индексы входных файлов, null - без индексов
+    private final long[] starts;                                // Смещения начала разбиваемой части файлов
+    private final long[] ends;                                  // Смещения конца разбиваемой части файлов
+
+    /**
+     * Задаёт индексы входных файлов (см. --prescan): образцы ключей заменяют пробное чтение при выборе
+     * разделителей и сужают двоичный поиск границ.
+     * @param indexes Индексы в порядке входных файлов; null - у файла нет индекса.
+     */
+    public void setIndexes(InputIndex[] indexes) { this.indexes = indexes; }
+
+    /**
+     * @param file Номер файла.
+     * @return Индекс файла с разобранными ключами образцов, null, если его нет.
+     */
+    private InputIndex getIndex(int file) {
+        InputIndex result = indexes != null ? indexes[file] : null;
+        return result != null && result.hasKeys() ? result : null;
+    }
+
+    /**
+     * Пробное чтение: первый валидный элемент файла, строка которого начинается не раньше заданного смещения.
+     * @param file Номер файла.
+     * @param offset Смещение в байтах.
+     * @return Входной поток, текущий элемент которого - найденный элемент. Без текущего элемента,
+     * если до конца файла валидных элементов нет. Вызывающая сторона закрывает его обработчик файла.
+     */
+    private MergeInput probe(int file, long offset) {
+        // Читаем с предыдущего байта: если он - конец строки, первая пропускаемая строка окажется пустой.
+        long start = offset > 0 ? offset - 1 : 0;
+        FileHandler handler = new FileHandler(files.get(file).getFileName(), files.get(file).getFileChannel(),
+                start, sizes[file], false, PROBE_BUFFER_SIZE);
+        handler.setQuiet(true);
+        if (offset > 0) {
+            handler.skipLine();
+        }
+        MergeInput result = inputFactory.apply(handler);
+        result.advance();
+        return result;
+    }
+
+    /**
+     * Ищет в файле смещение первой строки, элемент которой в порядке сортировки не предшествует разделителю.
+     * @param file Номер файла.
+     * @param splitter Ключ-разделитель.
+     * @param from Смещение, с которого начинается поиск - граница предыдущего диапазона.
+     * @return Смещение границы диапазона в байтах.
+     */
+    private long search(int file, Object splitter, long from) {
+        long low = from;
+        long high = sizes[file];
+        InputIndex index = getIndex(file);
+        if (index != null) { // Образцы отсортированного начала файла упорядочены - поиск сужается до соседних.
+            int lowSample = 0;
+            int highSample = index.getSampleCount();
+            while (lowSample < highSample) {
+                int middle = (lowSample + highSample) >>> 1;
+                if (MergeInput.compareKeys(index.getSampleKey(middle), splitter) * sortType.getMultiplier() < 0) {
+                    lowSample = middle + 1;
+                } else {
+                    highSample = middle;
+                }
+            }
+            if (lowSample > 0) { // Образец и все строки до него предшествуют разделителю.
+                low = Math.max(low, index.getSampleOffset(lowSample - 1) + 1);
+            }
+            if (lowSample < index.getSampleCount() && index.getSampleOffset(lowSample) >= low) {
+                high = Math.min(high, index.getSampleOffset(lowSample));
+            }
+        }
+        while (low < high) {
+            long middle = low + (high - low) / 2;
+            MergeInput input = probe(file, middle);
+            if (input.hasCurrent() && input.compareToKey(splitter) * sortType.getMultiplier() < 0) {
+                // Все строки до найденной включительно предшествуют разделителю.
+                low = Math.max(middle, input.getFile().getScanner().getLineOffset()) + 1;
+            } else {
+                high = middle;
+            }
+            input.getFile().close();
+        }
+        MergeInput input = probe(file, low);
+        long result = input.hasCurrent() ? input.getFile().getScanner().getLineOffset() : sizes[file];
+        input.getFile().close();
+        return result;
+    }
+
+    /**
+     * Ищет в файле начало диапазона ключей: смещение первой строки, элемент которой в порядке сортировки
+     * не предшествует ключу.
+     * @param file Номер файла.
+     * @param key Ключ (см. MergeInput.getCurrentKey()).
+     * @return Смещение в байтах, размер файла - если таких строк нет.
+     */
+    public long seek(int file, Object key) {
+        return search(file, key, 0);
+    }
+
+    /**
+     * Ограничивает разбиение диапазоном ключей [lowerKey, upperKey): разбиваются только части файлов
+     * между границами диапазона.
+     * @param lowerKey Нижняя граница, null - с начала файлов.
+     * @param upperKey Верхняя граница, не входящая в диапазон, null - до конца файлов.
+     */
+    public void setRange(Object lowerKey, Object upperKey) {
+        for (int i = 0; i < files.size(); i++) {
+            starts[i] = lowerKey != null ? seek(i, lowerKey) : 0;
+            ends[i] = upperKey != null ? search(i, upperKey, starts[i]) : sizes[i];
+        }
+    }
+
+    /**
+     * Разбивает входные файлы на диапазоны.
+     * @param partitions Количество диапазонов.
+     * @return Границы диапазонов: для файла i диапазон q - фрагмент [result[i][q], result[i][q + 1]).
+     */
+    public long[][] split(int partitions) {
+        List<Object> samples = new ArrayList<>();
+        int samplesPerFile = partitions * SAMPLES_PER_PARTITION;
+        for (int i = 0; i < files.size(); i++) {
+            InputIndex index = getIndex(i);
+            if (index != null) { // Образцы берутся из разбиваемой части файла.
+                int first = 0;
+                while (first < index.getSampleCount() && index.getSampleOffset(first) < starts[i]) {
+                    first++;
+                }
+                int last = first;
+                while (last < index.getSampleCount() && index.getSampleOffset(last) < ends[i]) {
+                    last++;
+                }
+                for (int j = 0; j < samplesPerFile && last > first; j++) {
+                    samples.add(index.getSampleKey(first + j * (last - first) / samplesPerFile));
+                }
+            } else {
+                for (int j = 0; j < samplesPerFile; j++) {
+                    MergeInput input = probe(i, starts[i] + (ends[i] - starts[i]) * j / samplesPerFile);
+                    if (input.hasCurrent() && input.getFile().getScanner().getLineOffset() < ends[i]) {
+                        samples.add(input.getCurrentKey());
+                    }
+                    input.getFile().close();
+                }
+            }
+        }
+        samples.sort((a, b) -> MergeInput.compareKeys(a, b) * sortType.getMultiplier());
+
+        long[][] result = new long[files.size()][partitions + 1];
+        for (int i = 0; i < files.size(); i++) {
+            result[i][0] = starts[i];
+            result[i][partitions] = ends[i];
+            for (int q = 1; q < partitions; q++) {
+                result[i][q] = samples.isEmpty() ? ends[i]
+                        : Math.min(ends[i], search(i, samples.get(q * samples.size() / partitions), result[i][q - 1]));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param files Обработчики входных файлов. Входные данные должны быть файлами.
+     * @param sizes Размеры входных файлов.
+     * @param inputFactory Создание входного потока для разбора элементов из обработчика файла.
+     * @param sortType Порядок сортировки.
+     */
+    public Partitioner(List<FileHandler> files, long[] sizes, Function<FileHandler, MergeInput> inputFactory,
+                       SortType sortType) {
+        this.files = files;
+        this.sizes = sizes;
+        this.inputFactory = inputFactory;
+        this.sortType = sortType;
+        this.starts = new long[files.size()];
+        this.ends = sizes.clone();
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Входной поток целых чисел с упреждающим чтением: числа разбираются в фоновом потоке пакетами,
+ * пока поток слияния обрабатывает предыдущий пакет.
+ */
+public class PrefetchNumberInput extends NumberInput {
+    private final ReadAhead readAhead;  // Упреждающее чтение файла
+    private RecordBatch batch;          // Обрабатываемый пакет
+    private int index;                  // Номер следующего элемента в пакете
+    private long lineNumber;            // Номер строки текущего элемента
+
+    /**
+     * Заполняет пакет числами из файла. Выполняется в фоновом потоке.
+     * @param target Пакет.
+     * @return Количество считанных чисел.
+     */
+    private int read(RecordBatch target) {
+        int count = 0;
+        while (count < target.numbers.length && file.nextLong(minValue, maxValue)) {
+            target.numbers[count] = file.getNumber();
+            target.lineNumbers[count] = file.getLineNumber();
+            count++;
+        }
+        target.count = count;
+        return count;
+    }
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        if (batch == null || (index == batch.count && batch.count == readAhead.getBatchSize())) {
+            if (batch != null) {
+                readAhead.release(batch);
+            }
+            batch = readAhead.take();
+            index = 0;
+        }
+        hasCurrent = index < batch.count;
+        if (hasCurrent) {
+            current = batch.numbers[index];
+            lineNumber = batch.lineNumbers[index];
+            index++;
+        }
+        return hasCurrent;
+    }
+
+    @Override
+    public long getLineNumber() { return lineNumber; }
+
+    /**
+     * @param file Обработчик входного файла.
+     * @param dataType Тип данных: определяет диапазон допустимых значений.
+     * @param executor Пул потоков упреждающего чтения.
+     * @param batchSize Ёмкость пакета.
+     * @param depth Количество пакетов в кольце.
+     */
+    public PrefetchNumberInput(FileHandler file, DataType dataType, Executor executor, int batchSize, int depth) {
+        super(file, dataType);
+        this.readAhead = new ReadAhead(this::read, executor, batchSize, depth, true);
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Входной поток строк с упреждающим чтением: строки считываются в фоновом потоке пакетами,
+ * пока поток слияния обрабатывает предыдущий пакет.
+ * Ключи сортировки строк (см. Collation) вычисляются там же, в фоновом потоке.
+ */
+public class PrefetchStringInput extends StringInput {
+    private final ReadAhead readAhead;  // Упреждающее чтение файла
+    private RecordBatch batch;          // Обрабатываемый пакет
+    private int index;                  // Номер следующего элемента в пакете
+    private long lineNumber;            // Номер строки текущего элемента
+
+    /**
+     * Заполняет пакет строками из файла. Выполняется в фоновом потоке.
+     * @param target Пакет.
+     * @return Количество считанных строк.
+     */
+    private int read(RecordBatch target) {
+        int count = 0;
+        String line;
+        while (count < target.strings.length && (line = file.getNextString()) != null) {
+            target.strings[count] = line;
+            if (keyed) {
+                if (target.keys == null) {
+                    target.keys = new byte[target.strings.length][];
+                }
+                target.keys[count] = collation.getKey(line);
+            }
+            target.lineNumbers[count] = file.getLineNumber();
+            count++;
+        }
+        target.count = count;
+        return count;
+    }
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        previousKey = currentKey;
+        if (batch == null || (index == batch.count && batch.count == readAhead.getBatchSize())) {
+            if (batch != null) {
+                readAhead.release(batch);
+            }
+            batch = readAhead.take();
+            index = 0;
+        }
+        hasCurrent = index < batch.count;
+        if (hasCurrent) {
+            current = batch.strings[index];
+            batch.strings[index] = null; // Пакет не удерживает строки, уже переданные в слияние.
+            if (keyed) {
+                currentKey = batch.keys[index];
+                batch.keys[index] = null;
+            }
+            lineNumber = batch.lineNumbers[index];
+            index++;
+        }
+        return hasCurrent;
+    }
+
+    @Override
+    public long getLineNumber() { return lineNumber; }
+
+    /**
+     * @param file Обработчик входного файла.
+     * @param collation Правило сравнения строк.
+     * @param executor Пул потоков упреждающего чтения.
+     * @param batchSize Ёмкость пакета.
+     * @param depth Количество пакетов в кольце.
+     */
+    public PrefetchStringInput(FileHandler file, Collation collation, Executor executor, int batchSize, int depth) {
+        super(file, collation);
+        this.readAhead = new ReadAhead(this::read, executor, batchSize, depth, false);
+    }
+}
@@ -0,0 +1,106 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Предварительный просмотр входных файлов (--prescan): файлы просматриваются параллельно - по потоку
+ * на ядро процессора, индексы (см. InputIndex) передаются обработчикам файлов. До начала слияния
+ * сообщается о файлах с невалидными строками и нарушением порядка. Сжатые файлы не индексируются.
+ */
+public class Prescanner {
+    private final MergeContext context;     // Окружение слияния
+    private final List<FileHandler> files;  // Обработчики входных файлов
+
+    /**
+     * Индекс входного файла: сохранённый файл-спутник, если он актуален, иначе файл просматривается целиком
+     * и индекс сохраняется. Если сохранить индекс невозможно, он используется только в текущем запуске.
+     * @param file Обработчик входного файла.
+     * @param signature Параметры разбора элементов.
+     * @return Индекс файла, null, если файл невозможно просмотреть - он сливается без индекса.
+     */
+    private InputIndex prescan(FileHandler file, String signature) {
+        InputIndex result = null;
+        try {
+            long size = file.getFileChannel().size();
+            long modified = Files.getLastModifiedTime(Paths.get(file.getFileName())).toMillis();
+            Path path = Paths.get(file.getFileName() + InputIndex.EXTENSION);
+            result = InputIndex.load(path, size, modified, signature);
+            if (result == null) {
+                result = new InputIndex(size, modified, signature);
+                FileHandler scanner = new FileHandler(file.getFileName(), file.getFileChannel(), 0, size,
+                        context.isMemoryMapped(), MergeContext.GROUP_CHUNK_SIZE);
+                scanner.setQuiet(true); // Предупреждения выводятся при слиянии - по индексу.
+                scanner.setRecorder(result);
+                try {
+                    result.scan(context.createInput(scanner), context.getSortType());
+                } finally {
+                    scanner.close();
+                }
+                try {
+                    result.save(path);
+                } catch (IOException e) {
+                    Diagnostics.message(ErrorLevel.WARNING, "\"" + path + "\": cannot save index\n"
+                            + e.getMessage());
+                }
+            }
+            result.resolveKeys(context::parseKey);
+        } catch (IOException | InvalidPathException e) {
+            Diagnostics.message(ErrorLevel.WARNING, "\"" + file.getFileName() + "\": cannot prescan file\n"
+                    + e.getMessage());
+            result = null;
+        }
+        return result;
+    }
+
+    /**
+     * Просматривает несжатые входные файлы и передаёт индексы их обработчикам.
+     * @throws IOException При прерывании просмотра.
+     */
+    public void scan() throws IOException {
+        String signature = context.getIndexSignature();
+        List<FileHandler> indexed = new ArrayList<>();
+        for (FileHandler file: files) {
+            if (file.getFileChannel() != null) {
+                indexed.add(file);
+            }
+        }
+        int scanners = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), indexed.size()));
+        ExecutorService executor = MergeContext.createExecutor(scanners, "cftsort-prescan");
+        try {
+            List<Future<InputIndex>> tasks = new ArrayList<>();
+            for (FileHandler file: indexed) {
+                tasks.add(executor.submit(() -> prescan(file, signature)));
+            }
+            for (int i = 0; i < tasks.size(); i++) {
+                InputIndex index = MergeContext.await(tasks.get(i));
+                FileHandler file = indexed.get(i);
+                file.setIndex(index);
+                if (index != null && (index.getSkippedCount() > 0 || index.getViolationOffset() >= 0)) {
+                    Diagnostics.message(ErrorLevel.WARNING, "\"" + file.getFileName() + "\": prescan found "
+                            + index.getSkippedCount() + " invalid lines"
+                            + (index.getViolationOffset() >= 0 ? ", invalid order of data at line "
+                            + index.getViolationLine() : ""));
+                }
+            }
+        } finally {
+            MergeContext.shutdown(executor);
+        }
+    }
+
+    /**
+     * @param context Окружение слияния.
+     * @param files Обработчики входных файлов.
+     */
+    public Prescanner(MergeContext context, List<FileHandler> files) {
+        this.context = context;
+        this.files = files;
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодический вывод прогресса сортировки в фоновом потоке.
+ * Поток только читает опубликованные счётчики и не влияет на сортировку.
+ * Строки прогресса выводятся вместе с диагностическими сообщениями (см. Diagnostics).
+ */
+public class ProgressReporter {
+    private final ScheduledExecutorService executor;    // Фоновый поток вывода прогресса
+
+    /**
+     * Останавливает вывод прогресса.
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Запускает вывод прогресса.
+     * @param metrics Счётчики сортировки.
+     * @param interval Интервал вывода в секундах.
+     */
+    public ProgressReporter(Metrics metrics, long interval) {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cftsort-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleAtFixedRate(() -> Diagnostics.message(null, metrics.formatProgress()), interval, interval,
+                TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Канал чтения фрагмента файла [start, end).
+ * Читает позиционным чтением, не изменяя позицию канала файла, поэтому несколько фрагментов одного файла
+ * могут читаться одновременно из разных потоков выполнения. Закрытие фрагмента не закрывает канал файла.
+ */
+public class RangeChannel implements ReadableByteChannel {
+    private final FileChannel channel;  // Канал файла
+    private final long end;             // Смещение конца фрагмента
+    private long position;              // Смещение следующего байта для чтения
+    private boolean open;               // Фрагмент открыт
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int result = -1;
+        if (position < end) {
+            int limit = dst.limit();
+            if (dst.remaining() > end - position) { // Не читаем за границей фрагмента.
+                dst.limit(dst.position() + (int) (end - position));
+            }
+            result = channel.read(dst, position);
+            dst.limit(limit);
+            if (result > 0) {
+                position += result;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isOpen() { return open; }
+
+    @Override
+    public void close() { open = false; }
+
+    /**
+     * @param channel Канал файла.
+     * @param start Смещение начала фрагмента.
+     * @param end Смещение конца фрагмента.
+     */
+    public RangeChannel(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+        this.open = true;
+    }
+}
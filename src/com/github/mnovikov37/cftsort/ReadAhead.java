@@ -0,0 +1,118 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Упреждающее чтение входного файла в фоновом потоке.
+ * Пакеты элементов заполняются задачами пула потоков и передаются потоку слияния через ограниченное кольцо:
+ * заполненные пакеты ждут в очереди готовых, обработанные возвращаются в очередь свободных.
+ * Для каждого файла одновременно выполняется не более одной задачи, поэтому файл читается последовательно.
+ */
+public class ReadAhead {
+    /**
+     * Заполнение пакета элементами входного файла.
+     */
+    public interface BatchReader {
+        /**
+         * @param batch Пакет, который требуется заполнить.
+         * @return Количество считанных элементов. Меньше ёмкости пакета - если файл исчерпан.
+         */
+        int read(RecordBatch batch);
+    }
+
+    private final BatchReader reader;                       // Заполнение пакетов
+    private final Executor executor;                        // Пул потоков упреждающего чтения
+    private final int batchSize;                            // Ёмкость пакета
+    private final BlockingQueue<RecordBatch> ready;         // Заполненные пакеты
+    private final BlockingQueue<RecordBatch> free;          // Свободные пакеты
+    private final AtomicBoolean scheduled;                  // Задача чтения для файла запланирована
+    private final Runnable task;                            // Задача чтения одного пакета
+    private volatile boolean finished;                      // Файл прочитан до конца
+
+    /**
+     * Заполняет один свободный пакет и, если есть ещё свободные пакеты, планирует следующее чтение.
+     */
+    private void readBatch() {
+        RecordBatch batch = free.poll();
+        if (batch != null) {
+            int count = reader.read(batch);
+            if (count < batchSize) {
+                finished = true;
+            }
+            ready.add(batch);
+        }
+        scheduled.set(false);
+        if (!free.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Планирует задачу чтения, если она ещё не запланирована и файл не прочитан до конца.
+     */
+    private void schedule() {
+        if (!finished && scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) { // Пул остановлен - сортировка завершается.
+                scheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Получает очередной заполненный пакет, при необходимости ожидая его.
+     * Пакет с количеством элементов меньше ёмкости - последний.
+     * @return Пакет элементов.
+     */
+    public RecordBatch take() {
+        RecordBatch result;
+        try {
+            result = ready.take();
+        } catch (InterruptedException e) { // Прерывание сортировки обрабатывается как конец файла.
+            Thread.currentThread().interrupt();
+            result = new RecordBatch(0, true);
+        }
+        return result;
+    }
+
+    /**
+     * Возвращает обработанный пакет для повторного заполнения.
+     * @param batch Пакет.
+     */
+    public void release(RecordBatch batch) {
+        free.add(batch);
+        schedule();
+    }
+
+    /**
+     * @return Ёмкость пакета.
+     */
+    public int getBatchSize() { return batchSize; }
+
+    /**
+     * Создаёт кольцо пакетов и сразу начинает чтение.
+     * @param reader Заполнение пакетов.
+     * @param executor Пул потоков упреждающего чтения.
+     * @param batchSize Ёмкость пакета.
+     * @param depth Количество пакетов в кольце.
+     * @param numeric true - пакеты чисел, false - пакеты строк.
+     */
+    public ReadAhead(BatchReader reader, Executor executor, int batchSize, int depth, boolean numeric) {
+        this.reader = reader;
+        this.executor = executor;
+        this.batchSize = batchSize;
+        this.ready = new ArrayBlockingQueue<>(depth);
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.scheduled = new AtomicBoolean(false);
+        this.task = this::readBatch;
+        for (int i = 0; i < depth; i++) {
+            free.add(new RecordBatch(batchSize, numeric));
+        }
+        schedule();
+    }
+}
@@ -0,0 +1,24 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Пакет элементов, заранее считанных из входного файла.
+ * В зависимости от типа данных заполняется либо массив чисел, либо массив строк.
+ */
+public class RecordBatch {
+    final long[] numbers;       // Числа, null для строкового пакета
+    final String[] strings;     // Строки, null для числового пакета
+    final long[] lineNumbers;   // Номера строк файла, из которых взяты элементы
+    byte[][] keys;              // Ключи сортировки строк, null - если строки сравниваются без ключей
+    int count;                  // Количество элементов в пакете
+
+    /**
+     * @param capacity Ёмкость пакета.
+     * @param numeric true - пакет чисел, false - пакет строк.
+     */
+    public RecordBatch(int capacity, boolean numeric) {
+        this.numbers = numeric ? new long[capacity] : null;
+        this.strings = numeric ? null : new String[capacity];
+        this.lineNumbers = new long[capacity];
+        this.count = 0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Входной поток записей с ключевыми полями (см. KeyFields).
+ * Ключ извлекается один раз при чтении записи в переиспользуемый буфер (см. RecordKey); буферы текущей
+ * и предыдущей записей меняются местами, поэтому чтение записи не создаёт новых ключей.
+ * Строки с пробелами - обычные записи, записи без ключевого поля либо с невалидным числовым полем
+ * пропускаются с предупреждением.
+ */
+public class RecordInput extends MergeInput {
+    private String current;         // Текущая запись
+    private String previous;        // Предыдущая запись
+    private RecordKey currentKey;   // Ключ текущей записи
+    private RecordKey previousKey;  // Ключ предыдущей записи
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        RecordKey key = previousKey;
+        previousKey = currentKey;
+        currentKey = key;
+        boolean valid = false;
+        while (!valid && (current = file.getNextString()) != null) {
+            valid = currentKey.extract(current);
+            if (!valid) {
+                file.rejectRecord();
+            }
+        }
+        hasCurrent = valid;
+        return hasCurrent;
+    }
+
+    @Override
+    public int compareTo(MergeInput other) {
+        return currentKey.compareTo(((RecordInput) other).currentKey);
+    }
+
+    @Override
+    public int compareToPrevious() {
+        return currentKey.compareTo(previousKey);
+    }
+
+    @Override
+    public Object getCurrentKey() {
+        return new Collation.Key(currentKey.toArray());
+    }
+
+    @Override
+    public int compareToKey(Object key) {
+        return MergeInput.compareKeys(getCurrentKey(), key);
+    }
+
+    @Override
+    public int compareToPreviousOf(MergeInput other) {
+        return currentKey.compareTo(((RecordInput) other).previousKey);
+    }
+
+    @Override
+    public long getPreviousValue() {
+        return previousKey.getValue();
+    }
+
+    @Override
+    public void writePreviousElement(OutputBuffer output) throws IOException {
+        output.writeString(previous);
+    }
+
+    /**
+     * @param file Обработчик входного файла. Строки с пробелами в нём перестают пропускаться.
+     * @param fields Ключевые поля.
+     */
+    public RecordInput(FileHandler file, KeyFields fields) {
+        super(file);
+        file.setSpacesAllowed(true);
+        this.currentKey = new RecordKey(fields);
+        this.previousKey = new RecordKey(fields);
+    }
+}
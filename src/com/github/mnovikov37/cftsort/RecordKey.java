@@ -0,0 +1,192 @@
+package com.github.mnovikov37.cftsort;
+
+import java.util.Arrays;
+
+/**
+ * Ключ записи (см. KeyFields) в компактной форме - массив байт, который сравнивается побайтно без знака
+ * в том же порядке, что и ключевые поля по очереди. Сравнение записей любой ширины стоит столько же,
+ * сколько сравнение их ключей.
+ * Числа записываются восемью байтами с инвертированным знаковым битом. Строки - байтами в порядке правила
+ * сравнения (ORDINAL - кодовые единицы UTF-16 в виде CESU-8, BYTES - UTF-8, остальные - ключ сортировки
+ * Collation), нулевой байт заменяется парой 0x00 0xFF, строка завершается парой 0x00 0x00 - поэтому
+ * более короткая строка меньше любого своего продолжения.
+ * Буфер ключа переиспользуется при извлечении ключа следующей записи.
+ */
+public class RecordKey {
+    private final static int INITIAL_CAPACITY = 64; // Начальный размер буфера ключа
+
+    private final KeyFields fields;     // Ключевые поля
+    private final int[] starts;         // Начала полей записи, до наибольшего номера ключевого поля
+    private final int[] ends;           // Концы полей записи
+    private byte[] bytes;               // Буфер ключа
+    private int length;                 // Длина ключа в буфере
+    private long value;                 // Значение поля значения записи, 0 - если поле значения не задано
+
+    public byte[] getBytes() { return bytes; }
+    public int getLength() { return length; }
+    public long getValue() { return value; }
+
+    /**
+     * @return Копия ключа - для хранения вне буфера.
+     */
+    public byte[] toArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Сравнивает ключ с ключом другой записи.
+     * @param other Ключ другой записи.
+     * @return Результат сравнения по возрастанию.
+     */
+    public int compareTo(RecordKey other) {
+        return Arrays.compareUnsigned(bytes, 0, length, other.bytes, 0, other.length);
+    }
+
+    /**
+     * Увеличивает буфер ключа, чтобы в нём поместилось ещё count байт.
+     * @param count Количество байт.
+     */
+    private void ensureCapacity(int count) {
+        if (length + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + count));
+        }
+    }
+
+    /**
+     * Записывает байт строкового поля: нулевой байт - парой 0x00 0xFF.
+     * @param b Байт.
+     */
+    private void putStringByte(int b) {
+        bytes[length++] = (byte) b;
+        if (b == 0) {
+            bytes[length++] = (byte) 0xFF;
+        }
+    }
+
+    /**
+     * Записывает строковое поле в порядке правила сравнения.
+     * @param record Запись.
+     * @param start Начало поля.
+     * @param end Конец поля.
+     */
+    private void putString(String record, int start, int end) {
+        Collation collation = fields.getCollation();
+        switch (collation.getType()) {
+            case ORDINAL -> { // Каждая кодовая единица UTF-16 - как символ UTF-8: до трёх байт.
+                ensureCapacity(3 * (end - start) + 2);
+                for (int i = start; i < end; i++) {
+                    char c = record.charAt(i);
+                    if (c < 0x80) {
+                        putStringByte(c);
+                    } else if (c < 0x800) {
+                        bytes[length++] = (byte) (0xC0 | c >>> 6);
+                        bytes[length++] = (byte) (0x80 | c & 0x3F);
+                    } else {
+                        bytes[length++] = (byte) (0xE0 | c >>> 12);
+                        bytes[length++] = (byte) (0x80 | c >>> 6 & 0x3F);
+                        bytes[length++] = (byte) (0x80 | c & 0x3F);
+                    }
+                }
+            }
+            case BYTES -> { // Кодовые точки - в UTF-8: до четырёх байт.
+                ensureCapacity(4 * (end - start) + 2);
+                for (int i = start; i < end; ) {
+                    int c = record.codePointAt(i);
+                    i += Character.charCount(c);
+                    if (c < 0x80) {
+                        putStringByte(c);
+                    } else if (c < 0x800) {
+                        bytes[length++] = (byte) (0xC0 | c >>> 6);
+                        bytes[length++] = (byte) (0x80 | c & 0x3F);
+                    } else if (c < 0x10000) {
+                        bytes[length++] = (byte) (0xE0 | c >>> 12);
+                        bytes[length++] = (byte) (0x80 | c >>> 6 & 0x3F);
+                        bytes[length++] = (byte) (0x80 | c & 0x3F);
+                    } else {
+                        bytes[length++] = (byte) (0xF0 | c >>> 18);
+                        bytes[length++] = (byte) (0x80 | c >>> 12 & 0x3F);
+                        bytes[length++] = (byte) (0x80 | c >>> 6 & 0x3F);
+                        bytes[length++] = (byte) (0x80 | c & 0x3F);
+                    }
+                }
+            }
+            default -> {
+                byte[] key = collation.getKey(record.substring(start, end));
+                ensureCapacity(2 * key.length + 2);
+                for (byte b: key) {
+                    putStringByte(b & 0xFF);
+                }
+            }
+        }
+        bytes[length++] = 0;
+        bytes[length++] = 0;
+    }
+
+    /**
+     * Извлекает ключ записи в буфер, а также значение поля значения, если оно задано.
+     * @param record Запись.
+     * @return true, если ключ извлечён, false, если в записи нет ключевого поля (поля значения)
+     * либо числовое поле невалидно.
+     */
+    public boolean extract(String record) {
+        char delimiter = fields.getDelimiter();
+        int count = 0; // Количество найденных полей
+        int start = 0;
+        while (count < starts.length && start <= record.length()) {
+            int end = record.indexOf(delimiter, start);
+            if (end < 0) {
+                end = record.length();
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+            start = end + 1;
+        }
+        boolean result = count == starts.length;
+        length = 0;
+        int[] columns = fields.getColumns();
+        DataType[] types = fields.getTypes();
+        for (int k = 0; result && k < columns.length; k++) {
+            int column = columns[k];
+            if (types[k] == DataType.STRING) {
+                putString(record, starts[column], ends[column]);
+            } else {
+                try {
+                    long number = Long.parseLong(record, starts[column], ends[column], 10);
+                    result = types[k] == DataType.LONG || (number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE);
+                    ensureCapacity(Long.BYTES);
+                    number ^= Long.MIN_VALUE; // Числа со знаком сравниваются как байты без знака.
+                    for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                        bytes[length++] = (byte) (number >>> shift);
+                    }
+                } catch (NumberFormatException e) {
+                    result = false;
+                }
+            }
+        }
+        int valueColumn = fields.getValueColumn();
+        if (result && valueColumn >= 0) {
+            try {
+                value = Long.parseLong(record, starts[valueColumn], ends[valueColumn], 10);
+            } catch (NumberFormatException e) {
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param fields Ключевые поля.
+     */
+    public RecordKey(KeyFields fields) {
+        this.fields = fields;
+        int fieldCount = fields.getValueColumn() + 1;
+        for (int column: fields.getColumns()) {
+            fieldCount = Math.max(fieldCount, column + 1);
+        }
+        this.starts = new int[fieldCount];
+        this.ends = new int[fieldCount];
+        this.bytes = new byte[INITIAL_CAPACITY];
+        this.length = 0;
+    }
+}
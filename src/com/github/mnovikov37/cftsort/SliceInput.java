@@ -0,0 +1,68 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Входной поток строк, которые сравниваются и записываются прямо в буфере считывателя -
+ * как фрагменты байтов, без создания объектов String.
+ * Предыдущий элемент - отложенная строка считывателя, текущий - его текущая строка.
+ * Если входные данные в кодировке UTF-8, порядок сравнения совпадает с порядком String.compareTo()
+ * для правила ORDINAL и с порядком байтов для правила BYTES. Другие правила сравнения (см. Collation)
+ * в буфере не применяются.
+ */
+public class SliceInput extends MergeInput {
+    private final LineScanner scanner;  // Считыватель входного файла, в буфере которого находятся строки
+    private final Collation collation;  // Правило сравнения строк: ORDINAL либо BYTES
+    private final boolean utf16Order;   // Порядок String.compareTo() - для правила ORDINAL
+
+    @Override
+    public boolean advance() {
+        hasCurrent = file.nextLine(); // Текущая строка откладывается и становится предыдущей.
+        return hasCurrent;
+    }
+
+    @Override
+    public int compareTo(MergeInput other) {
+        return scanner.compareLine(((SliceInput) other).scanner, utf16Order);
+    }
+
+    @Override
+    public int compareToPrevious() {
+        return scanner.compareLineToKept(utf16Order);
+    }
+
+    @Override
+    public Object getCurrentKey() {
+        return collation.getSortKey(scanner.getString());
+    }
+
+    @Override
+    public int compareToKey(Object key) {
+        return MergeInput.compareKeys(getCurrentKey(), key);
+    }
+
+    @Override
+    public int compareToPreviousOf(MergeInput other) {
+        return scanner.compareLineToKept(((SliceInput) other).scanner, utf16Order);
+    }
+
+    @Override
+    public void writePreviousElement(OutputBuffer output) throws IOException {
+        scanner.writeKept(output);
+    }
+
+    /**
+     * @param file Обработчик входного файла.
+     * @param collation Правило сравнения строк: ORDINAL либо BYTES.
+     */
+    public SliceInput(FileHandler file, Collation collation) {
+        super(file);
+        this.scanner = file.getScanner();
+        this.collation = collation;
+        this.utf16Order = collation.getType() == CollationType.ORDINAL;
+    }
+
+    public SliceInput(FileHandler file) {
+        this(file, Collation.ORDINAL);
+    }
+}
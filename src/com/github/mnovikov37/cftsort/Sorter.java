@@ -1,200 +1,373 @@
 package com.github.mnovikov37.cftsort;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Сортировщик входных данных. Сортировка происходит автоматически при создании экземпляра класса.
+ * Сортировщик открывает входные и выходной файлы, выбирает режим слияния (см. MergeMode) по параметрам
+ * командной строки, совместимость которых проверена обработчиком командной строки, и освобождает ресурсы.
  */
 public class Sorter {
-    private SortType sortType;                  // Порядок сортировки: по возрастанию либо по убыванию
-    private DataType dataType;                  // Тип данных: целые числа либо строки
     private List<FileHandler> files;            // Обработчики входных файлов
-    private BufferedWriter outputWriter;        // Интерфейс записи в выходной файл
+    private List<String> deferredNames;         // Входные файлы, открываемые по мере слияния, null - все открыты
+    private ExecutorService prefetchExecutor;   // Пул потоков упреждающего чтения, null - чтение без упреждения
+    private ExecutorService gzipExecutor;       // Пул потоков сжатия выходного файла, null - без сжатия
+    private OutputBuffer outputBuffer;          // Буфер записи в выходной файл
     private List<String> criticalErrorMessages; // Пул критических ошибок
+    private Metrics metrics;                    // Счётчики входных и выходного файлов
+    private ProgressReporter progressReporter;  // Вывод прогресса, null - прогресс не выводится
+    private Checkpoint checkpoint;              // Контрольные точки слияния, null - не сохраняются
+    private boolean resumed;                    // Слияние возобновляется с контрольной точки
+    private boolean completed;                  // Слияние завершено без ошибок записи
 
     public List<String> getCriticalErrorMessages() { return criticalErrorMessages; }
 
     /**
-     * Сравнивает два объекта. Логика сравнения зависит от типа данных и порядка сортировки.
-     * @param t1 Первый объект.
-     * @param t2 Второй объект
-     * @param <T> Тип данных сравниваемых объектов
-     * @return Положительное число в случае t1 > t2, отрицательное число в случае t1 < t2, ноль в случае t1 = t2.
+     * Освобождение ресурсов - закрытие всех обработчиков входных файлов и буфера записи в выходной файл.
      */
-    private <T> int compare(T t1, T t2) {
-        int result = 0;
-
-        switch (dataType) {
-            case INT -> result = ((Integer)t1).compareTo((Integer)t2);
-            case STRING -> result = ((String)t1).compareTo((String)t2);
+    private void close() {
+        if (prefetchExecutor != null) { // Дожидаемся завершения фонового чтения, прежде чем закрывать файлы.
+            MergeContext.shutdown(prefetchExecutor);
+        }
+        for (FileHandler handler: files) {
+            handler.close();
+        }
+        try {
+            outputBuffer.close();
+            if (checkpoint != null && completed) { // Результат сохранён целиком - возобновлять нечего.
+                checkpoint.delete();
+            }
+        } catch (IOException e) {
+            // При невозможности закрыть буфер записи в выходной файл,
+            // пользователю выдаётся предупреждение о том, что выходные данные могут быть сохранены некорректно.
+            Diagnostics.message(ErrorLevel.CRITICAL, "cannot save output file\n" + e.getMessage()
+                    + "\nOutput data may be saved not correctly");
         }
-        result *= sortType.getMultiplier(); // В случае сортировки по убыванию результат инвертируется.
+        if (gzipExecutor != null) {
+            gzipExecutor.shutdownNow();
+        }
+    }
 
+    /**
+     * Выбирает режим слияния. Параметры уже согласованы друг с другом и со входными файлами
+     * (см. ParamHandler.checkInputs()): например, --natural-runs и --partition остаются включёнными,
+     * только если все входные файлы - несжатые обычные файлы, открытые одновременно.
+     * @param paramHandler Обработчик командной строки.
+     * @param context Окружение слияния.
+     * @return Режим слияния.
+     */
+    private MergeMode createMode(ParamHandler paramHandler, MergeContext context) {
+        MergeMode result;
+        if (checkpoint != null) {
+            result = new CheckpointedMerge(context, files, checkpoint, resumed);
+        } else if (paramHandler.isUnsorted()) {
+            result = new ExternalSortMerge(context, files, deferredNames);
+        } else if (deferredNames != null) {
+            result = new CascadedMerge(context, deferredNames, new HashSet<>());
+        } else if (paramHandler.isNaturalRuns()) {
+            result = new NaturalRunsMerge(context, files);
+        } else if (paramHandler.isPartitioned() && paramHandler.getThreads() > 1) {
+            result = new PartitionedMerge(context, files, paramHandler.getThreads());
+        } else {
+            result = new DirectMerge(context, files);
+        }
         return result;
     }
 
     /**
-     * Вычисляет индекс элемента в массиве, который будет следующим в выходных данных сортировки.
-     * В случае сортировки по возрастанию - индекс наименьшего элемента,
-     * в случае сортировки по убыванию - индекс наибольшего элемента.
-     * @param input Массив входных данных.
-     * @param <T> Тип входных данных.
-     * @return Индекс следующего элемента, согласно логике сортировки, -1, если его вычислить невозможно.
+     * Сортирует данные из входных файлов.
+     * @param paramHandler Обработчик командной строки.
+     * @param context Окружение слияния.
      */
-    private <T> int calcNextIndex(T[] input) {
-        int result = -1;
-        int count = input.length;
-
-        T limit = null;
-        for (int i = 0; i < count; i++) {
-            if (input[i] != null && (limit == null || compare(input[i], limit) <= 0)) {
-                limit = input[i];
-                result = i;
+    private void sort(ParamHandler paramHandler, MergeContext context) {
+        try {
+            MergeMode mode = createMode(paramHandler, context);
+            if (paramHandler.isPrescan()) {
+                new Prescanner(context, files).scan();
+            }
+            mode.merge();
+            completed = true;
+        } catch (IOException e) {
+            // В случае невозможности записи в выходной файл, программа закрывается с сообщением об ошибке.
+            Diagnostics.message(ErrorLevel.CRITICAL, "cannot write next line into output file\n"
+                    + e.getMessage() + "\nProgram will be closed");
+        }
+        close(); // По завершению сортировки, освобождаем ресурсы.
+        if (progressReporter != null) {
+            progressReporter.stop();
+        }
+        if (paramHandler.getMetricsFileName() != null) {
+            try {
+                Files.writeString(Paths.get(paramHandler.getMetricsFileName()), metrics.toJson(),
+                        StandardCharsets.UTF_8);
+            } catch (IOException | InvalidPathException e) {
+                Diagnostics.message(ErrorLevel.WARNING, "\"" + paramHandler.getMetricsFileName()
+                        + "\": cannot save metrics\n" + e.getMessage());
             }
         }
+    }
 
-        return result;
+    /**
+     * Параметры, от которых зависят порядок и содержимое выходного файла: разбор и сравнение элементов,
+     * обработка групп равных элементов, диапазон ключей и количество строк. Слияние возобновляется
+     * с контрольной точки, только если они не изменились.
+     * @param paramHandler Обработчик командной строки.
+     * @return Строка параметров.
+     */
+    private static String getCheckpointSignature(ParamHandler paramHandler) {
+        return MergeContext.getParseSignature(paramHandler.getDataType(), paramHandler.getSortType(),
+                paramHandler.getCollation(), paramHandler.getKeyFields())
+                + " unique " + paramHandler.isUnique() + " count " + paramHandler.isCount()
+                + " from " + paramHandler.getRangeFrom() + " to " + paramHandler.getRangeTo()
+                + " limit " + paramHandler.getLimit();
     }
 
     /**
-     * Берёт из входного файла следующий элемент для сортировки,
-     * текущий элемент переносит в массив предыдущих элементов -
-     * для отслеживания корректности порядка данных во входном файле.
-     * @param prev - массив предыдущих элементов - по количеству входных файлов.
-     * @param cur - массив текущих элементов - по количеству входных файлов.
-     * @param index - номер элемента, который нужно обновить.
-     * @param <T> - тип данных для сортировки.
+     * Проверяет, что повторы входного файла можно читать одним потоком: равные элементы неразличимы
+     * в выходном файле (числа и строки, сравниваемые без ключей сортировки), поэтому место повтора среди
+     * равных элементов других файлов не влияет на результат. Внешняя сортировка и контрольные точки
+     * рассчитаны на отдельный поток для каждого входного файла.
+     * @param paramHandler Обработчик командной строки.
+     * @return true, если повторы файлов читаются один раз.
      */
-    private <T> void shift(T[] prev, T[] cur, int index) {
-        prev[index] = cur[index];
-        switch (dataType) {
-            case INT -> cur[index] = (T) files.get(index).getNextInt();
-            case STRING -> cur[index] = (T) files.get(index).getNextString();
-        }
-        // В случае, если новый элемент, взятый из файла, нарушает заданный порядок сортировки,
-        // он принимается за null, и дальнейшая обработка данного файла прекращается.
-        // Об этом сообщается пользователю.
-        if (cur[index] != null && compare(cur[index], prev[index]) < 0) {
-            cur[index] = null;
-            StringBuilder sb = new StringBuilder();
-            sb.append(ErrorLevel.WARNING.getPrefix())
-                    .append(": \"").append(files.get(index).getFileName()).append("\" line ")
-                    .append(files.get(index).getLineNumber())
-                    .append(" - invalid order of data in file. The file is excluded from the further sorting");
-            System.out.println(sb);
-        }
+    private static boolean isSharingSupported(ParamHandler paramHandler) {
+        return paramHandler.getKeyFields() == null && !paramHandler.isUnsorted()
+                && paramHandler.getCheckpointFileName() == null
+                && !(paramHandler.getDataType() == DataType.STRING && paramHandler.getCollation().isKeyed());
     }
 
     /**
-     * Записывает строку в выходной файл.
-     * @param data Данные, которые требуется внести в файл.
-     * @param <T> Тип данных, которые требуется внести в файл.
-     * @return true в случае успешной записи, false в случае неудачи.
+     * Проверяет, что входной файл можно открыть для чтения, не открывая его.
+     * @param name Имя входного файла.
+     * @return true, если файл существует, доступен для чтения и не является каталогом, либо это стандартный ввод.
      */
-    private <T> boolean writeLineToOutputFile(T data) {
-        boolean result = true;
+    private static boolean isReadable(String name) {
+        boolean result;
         try {
-            outputWriter.write(data.toString() + "\n");
-        } catch (IOException e) {
-            // В случае невозможности записи в выходной файл, программа закрывается с сообщением об ошибке.
-            System.out.println(ErrorLevel.CRITICAL.getPrefix() + ": cannot write next line into output file\n"
-                    + e.getMessage() + "\nProgram will be closed");
+            Path path = Paths.get(name);
+            result = StreamChannel.STANDARD.equals(name) || (Files.isReadable(path) && !Files.isDirectory(path));
+        } catch (InvalidPathException e) {
             result = false;
         }
         return result;
     }
 
     /**
-     * Освобождение ресурсов - закрытие всех обработчиков входных файлов и буфера записи в выходной файл.
+     * Каталог временных файлов внешней сортировки: заданный параметром --temp-dir, иначе - каталог выходного файла.
+     * @param paramHandler Обработчик командной строки.
+     * @return Каталог временных файлов, null, если путь некорректен или не является каталогом.
      */
-    private void close() {
-        for (FileHandler handler: files) {
-            handler.close();
-        }
+    private static Path getTempDirectory(ParamHandler paramHandler) {
+        Path result = null;
         try {
-            outputWriter.close();
-        } catch (IOException e) {
-            // При невозможности закрыть буфер записи в выходной файл,
-            // пользователю выдаётся предупреждение о том, что выходные данные могут быть сохранены некорректно.
-            System.out.println(ErrorLevel.CRITICAL.getPrefix() + ": cannot save output file\n" + e.getMessage()
-                    + "\nOutput data may be saved not correctly");
+            result = paramHandler.getTempDirectory() != null ? Paths.get(paramHandler.getTempDirectory())
+                    : Paths.get(paramHandler.getOutputFileName()).toAbsolutePath().getParent();
+        } catch (InvalidPathException e) {
+            result = null;
         }
+        return result != null && Files.isDirectory(result) ? result : null;
     }
 
     /**
-     * Сортирует данные из входных файлов.
-     * @param <T> Тип входных данных.
+     * Подготавливает контрольные точки: новую либо, при возобновлении, сохранённую контрольную точку,
+     * соответствующую входным файлам.
+     * @param paramHandler Обработчик командной строки.
+     * @return Сообщение о критической ошибке, null, если ошибок нет.
      */
-    private <T> void sort() {
-        int inputFilesCount = files.size();
-        T[] current = null;     // Массив текущих данных - по количеству файлов. Последний считанный элемент.
-        T[] previous = null;    // Массив предыдущих данных - по количеству файлов. Предыдущий считанный элемент.
-        switch (dataType) { // Текущий и предыдущий массивы создаются в зависимости от типа входных данных.
-            case INT -> {
-                current = (T[]) new Integer[inputFilesCount];
-                previous = (T[]) new Integer[inputFilesCount];
-                for (int i = 0; i < inputFilesCount; i++) {
-                    previous[i] = (T) files.get(i).getNextInt();
-                    current[i] = previous[i];
+    private String prepareCheckpoint(ParamHandler paramHandler) {
+        String result = null;
+        Path path = null;
+        try {
+            path = Paths.get(paramHandler.getCheckpointFileName());
+        } catch (InvalidPathException e) {
+            result = "\"" + paramHandler.getCheckpointFileName() + "\": invalid checkpoint file name";
+        }
+        if (result != null) {
+            path = null;
+        } else if (paramHandler.isResume()) {
+            try {
+                checkpoint = Checkpoint.load(path, paramHandler.getCheckpointInterval());
+                boolean matches = checkpoint != null && checkpoint.getInputCount() == files.size();
+                for (int i = 0; matches && i < files.size(); i++) {
+                    matches = checkpoint.getName(i).equals(files.get(i).getFileName());
                 }
-            }
-            case STRING -> {
-                current = (T[]) new String[inputFilesCount];
-                previous = (T[]) new String[inputFilesCount];
-                for (int i = 0; i < inputFilesCount; i++) {
-                    previous[i] = (T) files.get(i).getNextString();
-                    current[i] = previous[i];
+                if (!matches) {
+                    checkpoint = null;
+                    result = "\"" + path + "\": checkpoint does not match the input files";
+                } else if (!getCheckpointSignature(paramHandler).equals(checkpoint.getSignature())) {
+                    checkpoint = null;
+                    result = "\"" + path + "\": checkpoint was saved with other data type, sort order, --collation, "
+                            + "--key, --unique, --count, --from, --to or --limit";
                 }
+            } catch (IOException e) {
+                result = "\"" + path + "\": cannot read checkpoint file\n" + e.getMessage();
+            }
+            resumed = checkpoint != null;
+        } else {
+            String[] names = new String[files.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = files.get(i).getFileName();
             }
+            checkpoint = new Checkpoint(path, paramHandler.getCheckpointInterval(), names,
+                    getCheckpointSignature(paramHandler));
         }
+        return result;
+    }
 
-        int nextIndex = 0;
-        while (nextIndex >= 0) {
-            nextIndex = calcNextIndex(current); // Вычисляем, элемент какого файла будет следующим в выходных данных.
-            if (nextIndex >= 0) {
-                shift(previous, current, nextIndex); // Считываем из входного файла следующий элемент.
-                if (!writeLineToOutputFile(previous[nextIndex])) { // Попытка записи данных в выходной файл.
-                    nextIndex = -1; // В случае ошибки записи в выходной файл, цикл останавливается.
-                }
+    /**
+     * Открывает выходной файл. При возобновлении слияния файл не создаётся заново, а усекается до длины,
+     * сохранённой в контрольной точке, - данные, записанные после неё, будут записаны повторно.
+     * Выходной файл "-" - стандартный вывод.
+     * @param paramHandler Обработчик командной строки.
+     * @return Канал выходного файла.
+     * @throws IOException При ошибке открытия файла либо если файл короче, чем в контрольной точке.
+     */
+    private FileChannel openOutput(ParamHandler paramHandler) throws IOException {
+        FileChannel result;
+        Path path = Paths.get(paramHandler.getOutputFileName());
+        if (StreamChannel.STANDARD.equals(paramHandler.getOutputFileName())) {
+            result = new FileOutputStream(FileDescriptor.out).getChannel();
+        } else if (resumed) {
+            result = FileChannel.open(path, StandardOpenOption.WRITE);
+            long length = checkpoint.getOutputLength();
+            if (result.size() < length) {
+                result.close();
+                throw new IOException("Output file is shorter than saved in the checkpoint");
             }
+            result.truncate(length);
+            result.position(length);
+            checkpoint.setOutputBase(length);
+        } else {
+            result = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
         }
-        close(); // По завершению сортировки, освобождаем ресурсы.
+        return result;
     }
 
     public Sorter(ParamHandler paramHandler) {
         files = new ArrayList<>();
         criticalErrorMessages = new ArrayList<>();
-        for (String name : paramHandler.getInputFileNames()) {
-            try {
-                // По списку имён из обработчика командной строки создаются обработчики входных файлов.
-                files.add(new FileHandler(name));
-            } catch (FileNotFoundException e) {
-                // В случае ошибки при создании обработчика файлов, такой файл пропускается,
-                // сортировка продолжается без него.
-                System.out.println(ErrorLevel.WARNING.getPrefix() + ": \"" + name + "\": file not found - skipped");
+        int fanIn = paramHandler.getFanIn();
+        List<String> names = paramHandler.getInputFileNames();
+        Map<String, Integer> repeats = new HashMap<>(); // Количество повторов входных файлов, читаемых один раз
+        if (isSharingSupported(paramHandler)) { // Повторы входного файла читаются одним потоком.
+            List<String> distinct = new ArrayList<>();
+            for (String name : names) {
+                if (repeats.merge(name, 1, Integer::sum) == 1) {
+                    distinct.add(name);
+                }
             }
+            names = distinct;
+        } else { // Потоковые входные данные читаются один раз - их повторы пропускаются.
+            List<String> distinct = new ArrayList<>();
+            Set<String> streams = new HashSet<>();
+            for (String name : names) {
+                if (!StreamChannel.isStream(name) || streams.add(name)) {
+                    distinct.add(name);
+                } else {
+                    Diagnostics.message(ErrorLevel.WARNING, "\"" + name + "\": stream can be read only once - "
+                            + "repeat skipped");
+                }
+            }
+            names = distinct;
         }
-        if (files.isEmpty()) {
+        // Буферы чтения одновременно открытых файлов делят бюджет памяти, но не меньше наименьшего размера.
+        int readBufferSize = (int) Math.max(MergeContext.MIN_READ_BUFFER_SIZE,
+                Math.min(LineScanner.DEFAULT_BUFFER_SIZE, paramHandler.getMemory() / Math.max(1,
+                        Math.min(names.size(), fanIn))));
+        if (names.size() > fanIn) {
+            // Все файлы сразу не открываются - они будут открываться пакетами по мере каскадного слияния.
+            deferredNames = new ArrayList<>();
+            for (String name : names) {
+                if (isReadable(name)) {
+                    deferredNames.add(name);
+                } else {
+                    Diagnostics.message(ErrorLevel.WARNING, "\"" + name + "\": file not found - skipped");
+                }
+            }
+        } else {
+            for (String name : names) {
+                try {
+                    // По списку имён из обработчика командной строки создаются обработчики входных файлов.
+                    files.add(new FileHandler(name, paramHandler.isMemoryMapped(), readBufferSize));
+                } catch (FileNotFoundException e) {
+                    // В случае ошибки при создании обработчика файлов, такой файл пропускается,
+                    // сортировка продолжается без него.
+                    Diagnostics.message(ErrorLevel.WARNING, "\"" + name + "\": file not found - skipped");
+                }
+            }
+        }
+        boolean found = !files.isEmpty() || (deferredNames != null && !deferredNames.isEmpty());
+        // Фрагменты файлов читаются по смещениям - это невозможно для сжатых и потоковых файлов.
+        boolean seekable = true;
+        for (FileHandler file: files) {
+            seekable &= file.getFileChannel() != null;
+        }
+        // Совместимость режимов со входными файлами проверяется один раз - до выбора режима.
+        String checkpointError = found ? paramHandler.checkInputs(seekable, deferredNames != null) : null;
+        if (checkpointError == null && found && paramHandler.getCheckpointFileName() != null) {
+            checkpointError = prepareCheckpoint(paramHandler);
+        }
+        Path tempDirectory = getTempDirectory(paramHandler);
+        if (!found) {
             // Если не удалось создать ни одного обработчика входящих файлов,
             // программа завершается с сообщением о критической ошибке.
             criticalErrorMessages.add(ErrorMessage.NO_INPUT_FILE_FOUND.getMessage()
                     + ". Check names of input files");
+        } else if ((paramHandler.isUnsorted() || paramHandler.isNaturalRuns() || deferredNames != null)
+                && tempDirectory == null) {
+            // Внешней сортировке нужен каталог для временных файлов.
+            criticalErrorMessages.add(ErrorMessage.TEMP_DIRECTORY_NOT_FOUND.getMessage()
+                    + ". Check the param --temp-dir");
+        } else if (checkpointError != null) { // Возобновить слияние с неподходящей контрольной точки невозможно.
+            criticalErrorMessages.add(checkpointError);
         } else {
             try {
-                outputWriter = new BufferedWriter(new FileWriter(paramHandler.getOutputFileName()));
-            } catch (IOException e) {
+                FileChannel channel = openOutput(paramHandler);
+                // Стандартный вывод - как правило, канал: сбросить его на диск невозможно.
+                boolean fsync = paramHandler.isFsync()
+                        && !StreamChannel.STANDARD.equals(paramHandler.getOutputFileName());
+                if (paramHandler.isGzip()) { // Сжатие выходного файла - блоками в пуле потоков.
+                    int compressors = Math.max(2, Runtime.getRuntime().availableProcessors());
+                    gzipExecutor = MergeContext.createExecutor(compressors, "cftsort-gzip");
+                    outputBuffer = new OutputBuffer(new GzipChannel(channel, gzipExecutor, compressors, fsync),
+                            paramHandler.getOutputBufferSize(), false);
+                } else {
+                    outputBuffer = new OutputBuffer(channel, paramHandler.getOutputBufferSize(), fsync);
+                }
+            } catch (IOException | InvalidPathException e) {
                 // В случае ошибки инициализации буфера записи в выходной файл,
                 // программа завершается с сообщением о критической ошибке.
                 criticalErrorMessages.add("\"" + paramHandler.getOutputFileName() + "\": "
                         + ErrorMessage.NOT_ACCESS_TO_OUTPUT_FILE.getMessage()
                         + ". Check that the output file can be created and edited\n" + e.getMessage());
             }
-            if (outputWriter != null) { // Если никаких ошибок не возникло, запускаем сортировку.
-                sortType = paramHandler.getSortType();
-                dataType = paramHandler.getDataType();
-                sort();
+            if (outputBuffer != null) { // Если никаких ошибок не возникло, запускаем сортировку.
+                metrics = new Metrics();
+                metrics.setOutput(paramHandler.getOutputFileName(), outputBuffer.getMetrics());
+                if (paramHandler.getProgressInterval() > 0) {
+                    progressReporter = new ProgressReporter(metrics, paramHandler.getProgressInterval());
+                }
+                if (paramHandler.isPrefetch()) {
+                    prefetchExecutor = MergeContext.createExecutor(
+                            Math.max(2, Runtime.getRuntime().availableProcessors()), "cftsort-prefetch");
+                }
+                sort(paramHandler, new MergeContext(paramHandler, outputBuffer, metrics, repeats, readBufferSize,
+                        tempDirectory, prefetchExecutor));
             }
         }
     }
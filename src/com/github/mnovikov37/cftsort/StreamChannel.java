@@ -0,0 +1,207 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Канал чтения потоковых входных данных - стандартного ввода либо именованного канала (FIFO).
+ * Такие данные читаются только последовательно: не отображаются в память, не делятся на фрагменты
+ * и не индексируются. Именованный канал открывается в отдельном потоке выполнения: открытие канала на чтение
+ * ждёт подключения пишущей стороны, а фоновое открытие не задерживает открытие остальных входных файлов,
+ * поэтому источник может открывать несколько каналов на запись в любом порядке. Чтение ждёт завершения
+ * открытия. Сжатие в формате gzip распознаётся при первом чтении, а не при открытии.
+ * В режиме низкой задержки (см. --low-latency) перед ожиданием ещё не поступивших несжатых данных
+ * вызывается обработчик ожидания: всё, что можно записать без этих данных, сразу передаётся получателю.
+ */
+public class StreamChannel implements ReadableByteChannel {
+    public final static String STANDARD = "-";     // Имя стандартного ввода и вывода в командной строке
+    private final static int MAGIC_SIZE = 2;        // Количество первых байт для распознавания сжатия
+
+    /**
+     * Обработчик ожидания данных - вызывается потоком, читающим канал, перед ожиданием.
+     */
+    public interface IdleListener {
+        void idle() throws IOException;
+    }
+
+    private final String name;              // Имя входных данных - для имени потоков открытия и распаковки
+    private FileInputStream stream;         // Поток входных данных - для проверки наличия данных без ожидания,
+                                            // null - открытие не завершено
+    private FileChannel channel;            // Канал потока входных данных
+    private IOException failure;            // Ошибка открытия, null - ошибки не было
+    private boolean closed;                 // Канал закрыт, в том числе до завершения открытия
+    private ByteBuffer head;                // Первые байты, прочитанные при распознавании сжатия, null - не читались
+    private ReadableByteChannel unpacked;   // Канал распакованных данных, null - данные не сжаты
+    private IdleListener idleListener;      // Обработчик ожидания данных, null - не вызывается
+
+    public void setIdleListener(IdleListener idleListener) { this.idleListener = idleListener; }
+
+    /**
+     * Проверяет, являются ли входные данные потоковыми, не открывая их.
+     * @param name Имя входного файла.
+     * @return true для стандартного ввода и существующего файла, не являющегося ни обычным файлом, ни каталогом.
+     */
+    public static boolean isStream(String name) {
+        boolean result = STANDARD.equals(name);
+        if (!result) {
+            try {
+                Path path = Paths.get(name);
+                result = Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path);
+            } catch (InvalidPathException e) {
+                result = false;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Открывает именованный канал. Выполняется в фоновом потоке: ожидает подключения пишущей стороны.
+     * Канал, закрытый до завершения открытия, закрывается сразу после открытия.
+     */
+    private void open() {
+        FileInputStream opened = null;
+        IOException error = null;
+        try {
+            opened = new FileInputStream(name);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            if (closed && opened != null) {
+                try {
+                    opened.close();
+                } catch (IOException ignored) {
+                    // Канал уже не нужен.
+                }
+            } else {
+                stream = opened;
+                channel = opened != null ? opened.getChannel() : null;
+                failure = error;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Ожидает завершения открытия. Прерывание ожидания обрабатывается как закрытие канала.
+     * @throws IOException При ошибке открытия либо если канал закрыт.
+     */
+    private synchronized void awaitOpen() throws IOException {
+        try {
+            while (stream == null && failure == null && !closed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AsynchronousCloseException();
+        }
+        if (failure != null) {
+            throw failure;
+        } else if (stream == null) {
+            throw new AsynchronousCloseException();
+        }
+    }
+
+    /**
+     * Читает из потока, предварительно вызывая обработчик ожидания, если данных сейчас нет.
+     * @param dst Буфер для прочитанных данных.
+     * @return Количество прочитанных байт, -1 - поток исчерпан.
+     * @throws IOException При ошибке чтения либо ошибке обработчика ожидания.
+     */
+    private int readStream(ByteBuffer dst) throws IOException {
+        if (idleListener != null && stream.available() == 0) { // Данных нет - записанное отдаётся получателю.
+            idleListener.idle();
+        }
+        return channel.read(dst);
+    }
+
+    /**
+     * Читает первые байты и распознаёт сжатие. Сжатые данные, вместе с первыми байтами, передаются
+     * на распаковку в отдельном потоке выполнения (см. Decompressor).
+     * @throws IOException При ошибке чтения.
+     */
+    private void readHead() throws IOException {
+        awaitOpen();
+        head = ByteBuffer.allocate(MAGIC_SIZE);
+        int count = 0;
+        while (head.hasRemaining() && count >= 0) {
+            count = readStream(head);
+        }
+        head.flip();
+        if (Decompressor.isCompressed(head.duplicate())) {
+            unpacked = Decompressor.start(Channels.newChannel(new SequenceInputStream(
+                    new ByteArrayInputStream(head.array(), 0, head.limit()), stream)), name);
+            head.position(head.limit());
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (head == null) {
+            readHead();
+        }
+        int result;
+        if (unpacked != null) {
+            result = unpacked.read(dst);
+        } else if (head.hasRemaining()) {
+            result = Math.min(dst.remaining(), head.remaining());
+            ByteBuffer part = head.duplicate();
+            part.limit(part.position() + result);
+            dst.put(part);
+            head.position(head.position() + result);
+        } else {
+            result = readStream(dst);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized boolean isOpen() { return !closed; }
+
+    @Override
+    public void close() throws IOException {
+        FileInputStream opened;
+        synchronized (this) { // Открытие, которое ещё не завершилось, закроет канал само (см. open()).
+            closed = true;
+            opened = stream;
+            notifyAll();
+        }
+        try {
+            if (unpacked != null) { // Прерывает распаковку.
+                unpacked.close();
+            }
+        } finally {
+            if (opened != null) {
+                opened.close();
+            }
+        }
+    }
+
+    /**
+     * Начинает открытие входных данных, не ожидая его завершения и не читая данные.
+     * @param name Имя входного файла либо STANDARD - стандартный ввод.
+     */
+    public StreamChannel(String name) {
+        this.name = name;
+        if (STANDARD.equals(name)) {
+            this.stream = new FileInputStream(FileDescriptor.in);
+            this.channel = stream.getChannel();
+        } else {
+            Thread thread = new Thread(this::open, "cftsort-open " + name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+}
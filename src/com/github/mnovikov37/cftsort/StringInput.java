@@ -0,0 +1,76 @@
+package com.github.mnovikov37.cftsort;
+
+import java.io.IOException;
+
+/**
+ * Входной поток строк.
+ * Строки сравниваются по заданному правилу (см. Collation). Для правил с ключами сортировки ключ
+ * вычисляется один раз при чтении элемента, и сравнения в дереве слияния сравнивают только ключи.
+ */
+public class StringInput extends MergeInput {
+    protected final Collation collation;    // Правило сравнения строк
+    protected final boolean keyed;          // Строки сравниваются по ключам сортировки
+    protected String current;               // Текущий элемент
+    protected String previous;              // Предыдущий элемент
+    protected byte[] currentKey;            // Ключ сортировки текущего элемента, null - если keyed = false
+    protected byte[] previousKey;           // Ключ сортировки предыдущего элемента
+
+    @Override
+    public boolean advance() {
+        previous = current;
+        previousKey = currentKey;
+        current = file.getNextString();
+        hasCurrent = current != null;
+        if (keyed && hasCurrent) {
+            currentKey = collation.getKey(current);
+        }
+        return hasCurrent;
+    }
+
+    @Override
+    public int compareTo(MergeInput other) {
+        StringInput input = (StringInput) other;
+        return keyed ? Collation.compareKeys(currentKey, input.currentKey) : collation.compare(current, input.current);
+    }
+
+    @Override
+    public int compareToPrevious() {
+        return keyed ? Collation.compareKeys(currentKey, previousKey) : collation.compare(current, previous);
+    }
+
+    @Override
+    public Object getCurrentKey() {
+        return keyed ? new Collation.Key(currentKey) : collation.getSortKey(current);
+    }
+
+    @Override
+    public int compareToKey(Object key) {
+        return MergeInput.compareKeys(getCurrentKey(), key);
+    }
+
+    @Override
+    public int compareToPreviousOf(MergeInput other) {
+        StringInput input = (StringInput) other;
+        return keyed ? Collation.compareKeys(currentKey, input.previousKey)
+                : collation.compare(current, input.previous);
+    }
+
+    @Override
+    public void writePreviousElement(OutputBuffer output) throws IOException {
+        output.writeString(previous);
+    }
+
+    /**
+     * @param file Обработчик входного файла.
+     * @param collation Правило сравнения строк.
+     */
+    public StringInput(FileHandler file, Collation collation) {
+        super(file);
+        this.collation = collation;
+        this.keyed = collation.isKeyed();
+    }
+
+    public StringInput(FileHandler file) {
+        this(file, Collation.ORDINAL);
+    }
+}
@@ -0,0 +1,32 @@
+package com.github.mnovikov37.cftsort;
+
+/**
+ * Причины предупреждений о строках входных файлов.
+ * Предупреждения одной причины в одном файле учитываются вместе - для ограничения их количества
+ * и итоговой сводки (см. Diagnostics).
+ */
+public enum WarningReason {
+    EMPTY_LINE(": ", "empty line - skipped"),
+    LINE_WITH_SPACE(": ", "line with space - skipped"),
+    INVALID_NUMBER(": ", "invalid number format - skipped"),
+    INVALID_KEY(": ", "missing or invalid key field - skipped"),
+    READ_ERROR(": ", "cannot read from file - technical error"),
+    INVALID_ORDER(" - ", "invalid order of data in file. The file is excluded from the further sorting");
+
+    /**
+     * Разделитель между номером строки и сообщением.
+     */
+    private String delimiter;
+    /**
+     * Сообщение, соответствующее причине.
+     */
+    private String message;
+
+    public String getDelimiter() { return delimiter; }
+    public String getMessage() { return message; }
+
+    WarningReason(String delimiter, String message) {
+        this.delimiter = delimiter;
+        this.message = message;
+    }
+}
@@ -0,0 +1,49 @@
+package com.github.mnovikov37.cftsort;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AggregatorTest {
+    /**
+     * Записывает группы через обработчик: каждая строка values - значения поля значения одной группы.
+     * @return Записанный результат.
+     */
+    private static String aggregate(long[]... values) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        OutputBuffer output = new OutputBuffer(Channels.newChannel(stream), 1024, false, StandardCharsets.UTF_8);
+        Aggregator aggregator = new Aggregator(output, true, true, ',');
+        for (int i = 0; i < values.length; i++) {
+            for (int j = 0; j < values[i].length; j++) {
+                if (aggregator.add(j == 0, values[i][j])) {
+                    output.writeString("g" + i);
+                }
+            }
+        }
+        aggregator.finish();
+        output.close();
+        return stream.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void sumsGroups() throws IOException {
+        assertEquals("g0,3,6\ng1,1,-5\n", aggregate(new long[] {1, 2, 3}, new long[] {-5}));
+    }
+
+    @Test
+    public void keepsSumThatOverflowsPartwayButEndsInRange() throws IOException {
+        assertEquals("g0,3," + Long.MAX_VALUE + "\ng1,3," + Long.MIN_VALUE + "\n",
+                aggregate(new long[] {Long.MAX_VALUE, 1, -1}, new long[] {Long.MIN_VALUE, -1, 1}));
+    }
+
+    @Test
+    public void limitsSumOutOfRange() throws IOException {
+        assertEquals("g0,2," + Long.MAX_VALUE + "\ng1,2," + Long.MIN_VALUE + "\ng2,1,7\n",
+                aggregate(new long[] {Long.MAX_VALUE, 1}, new long[] {Long.MIN_VALUE, -1}, new long[] {7}));
+    }
+}